@@ -0,0 +1,88 @@
+package com.mobinlife.jflake.benchmark;
+
+import java.nio.LongBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mobinlife.jflake.JFlake;
+import com.mobinlife.jflake.JFlakeConfiguration;
+import com.mobinlife.jflake.SequenceExhaustionPolicy;
+
+/**
+ * Time to reserve and write a batch of IDs with JFlake.fill(), single threaded and with 4 threads.
+ * Divide by batchSize for the cost per ID. Generators spin when a batch reaches the end of the current millisecond,
+ * so the results include the 8192 IDs/ms cap.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JFlakeBatchBenchmark {
+
+	@Param({"false", "true"})
+	public boolean lockFree;
+
+	@Param({"16", "256", "8192"})
+	public int batchSize;
+
+	private JFlake jflake;
+
+	@State(Scope.Thread)
+	public static class Buffers {
+
+		long[] array;
+		LongBuffer buffer;
+
+		@Setup
+		public void setup(JFlakeBatchBenchmark benchmark){
+			array = new long[benchmark.batchSize];
+			buffer = LongBuffer.allocate(benchmark.batchSize);
+		}
+
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		jflake = JFlake.createJFlakeInstance(new JFlakeConfiguration(1)
+				.withLockFree(lockFree)
+				.withExhaustionPolicy(SequenceExhaustionPolicy.SPIN));
+	}
+
+	@Benchmark
+	@Threads(1)
+	public long[] fillArrayOneThread(Buffers buffers){
+		jflake.fill(buffers.array);
+		return buffers.array;
+	}
+
+	@Benchmark
+	@Threads(4)
+	public long[] fillArrayFourThreads(Buffers buffers){
+		jflake.fill(buffers.array);
+		return buffers.array;
+	}
+
+	@Benchmark
+	@Threads(1)
+	public LongBuffer fillBufferOneThread(Buffers buffers){
+		buffers.buffer.clear();
+		jflake.fill(buffers.buffer);
+		return buffers.buffer;
+	}
+
+}
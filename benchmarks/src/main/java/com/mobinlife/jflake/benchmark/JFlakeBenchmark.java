@@ -0,0 +1,86 @@
+package com.mobinlife.jflake.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mobinlife.jflake.JFlake;
+import com.mobinlife.jflake.JFlakeConfiguration;
+import com.mobinlife.jflake.SequenceExhaustionPolicy;
+import com.mobinlife.jflake.time.CachedTimeSource;
+import com.mobinlife.jflake.time.SystemTimeSource;
+import com.mobinlife.jflake.time.TimeSource;
+
+/**
+ * Throughput of JFlake.getId() with 1, 4 and as many threads as available processors, sharing one generator.
+ * Generators spin when the sequence of a millisecond is exhausted, so the results include the 8192 IDs/ms cap.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JFlakeBenchmark {
+
+	@Param({"false", "true"})
+	public boolean lockFree;
+
+	@Param({"system", "cached"})
+	public String timeSource;
+
+	private JFlake jflake;
+	private CachedTimeSource cachedTimeSource;
+
+	@Setup
+	public void setup() throws Exception {
+		TimeSource source = SystemTimeSource.INSTANCE;
+		if("cached".equals(timeSource)){
+			cachedTimeSource = new CachedTimeSource();
+			source = cachedTimeSource;
+		}
+		jflake = JFlake.createJFlakeInstance(new JFlakeConfiguration(1)
+				.withLockFree(lockFree)
+				.withTimeSource(source)
+				.withExhaustionPolicy(SequenceExhaustionPolicy.SPIN));
+	}
+
+	@TearDown
+	public void tearDown(){
+		if(cachedTimeSource != null){
+			cachedTimeSource.stop();
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public long getIdOneThread() throws Exception {
+		return jflake.getId();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public long getIdFourThreads() throws Exception {
+		return jflake.getId();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public long getIdMaxThreads() throws Exception {
+		return jflake.getId();
+	}
+
+}
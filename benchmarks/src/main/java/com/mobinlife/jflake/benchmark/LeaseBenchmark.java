@@ -0,0 +1,121 @@
+package com.mobinlife.jflake.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.mobinlife.jflake.benchmark.standin.InMemoryDynamoDB;
+import com.mobinlife.jflake.benchmark.standin.InMemoryRedisServer;
+import com.mobinlife.jflake.benchmark.standin.RedisLeaseScripts;
+import com.mobinlife.jflake.generatorid.DynamoGeneratorIDProvider;
+import com.mobinlife.jflake.generatorid.GeneratorIDProvider;
+import com.mobinlife.jflake.generatorid.RedisGeneratorIDProvider;
+import com.mobinlife.jflake.generatorid.configuration.DynamoGeneratorIDConfiguration;
+import com.mobinlife.jflake.generatorid.configuration.RedisGeneratorIDConfiguration;
+
+/**
+ * Latency of a generator ID lease through the Redis and DynamoDB providers, against in-process stand-ins.
+ * The store is reset before each lease to a table holding existingLeases live leases, and every request to the
+ * store is delayed by latencyMicros to simulate the network. Each lease is made by a new provider, closed after it.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LeaseBenchmark {
+
+	private static final String TABLE = "jflake-leases";
+
+	@Param({"redis", "dynamo"})
+	public String store;
+
+	@Param({"0", "100", "500"})
+	public int existingLeases;
+
+	@Param({"0", "500"})
+	public long latencyMicros;
+
+	private InMemoryRedisServer redis;
+	private InMemoryDynamoDB dynamo;
+	private Properties properties;
+	private GeneratorIDProvider provider;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		properties = new Properties();
+		properties.setProperty("leaseRenewalFrequency", "3600");
+		if("redis".equals(store)){
+			redis = new InMemoryRedisServer(latencyMicros);
+			RedisLeaseScripts.register(redis);
+			properties.setProperty("redisHashKey", TABLE);
+			properties.setProperty("redisHost", redis.getHost());
+			properties.setProperty("redisPort", String.valueOf(redis.getPort()));
+		} else {
+			dynamo = new InMemoryDynamoDB(latencyMicros, 100);
+			dynamo.createTable(TABLE, "id");
+			properties.setProperty("dynamoTable", TABLE);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void resetStore() throws Exception {
+		long expiration = System.currentTimeMillis() + 3600000;
+		if(redis != null){
+			redis.flushAll();
+			for(int i = 0; i < existingLeases; i++){
+				redis.hset(TABLE, String.valueOf(i), String.valueOf(expiration));
+			}
+			provider = new RedisGeneratorIDProvider(new RedisGeneratorIDConfiguration(properties));
+		} else {
+			dynamo.clearTable(TABLE);
+			for(int i = 0; i < existingLeases; i++){
+				Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
+				item.put("id", new AttributeValue().withN(String.valueOf(i)));
+				item.put("exp", new AttributeValue().withN(String.valueOf(expiration)));
+				dynamo.putItemDirectly(TABLE, item);
+			}
+			DynamoGeneratorIDProvider dynamoProvider = new DynamoGeneratorIDProvider(
+					new DynamoGeneratorIDConfiguration(dynamo.asClient(), properties));
+			// outside of the measurement, which only covers leasing
+			dynamoProvider.checkTable();
+			provider = dynamoProvider;
+		}
+	}
+
+	@TearDown(Level.Invocation)
+	public void releaseLease(){
+		provider.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		if(redis != null){
+			redis.stop();
+		}
+	}
+
+	@Benchmark
+	public int leaseGeneratorId(){
+		return provider.getId();
+	}
+
+}
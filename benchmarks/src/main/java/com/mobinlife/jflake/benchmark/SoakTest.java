@@ -0,0 +1,307 @@
+package com.mobinlife.jflake.benchmark;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.mobinlife.jflake.IdDecoder;
+import com.mobinlife.jflake.IdLayout;
+import com.mobinlife.jflake.JFlake;
+import com.mobinlife.jflake.JFlakeConfiguration;
+import com.mobinlife.jflake.JFlakePool;
+import com.mobinlife.jflake.OffHeapLongSet;
+import com.mobinlife.jflake.SequenceExhaustedException;
+import com.mobinlife.jflake.SequenceExhaustionPolicy;
+import com.mobinlife.jflake.benchmark.standin.InMemoryDynamoDB;
+import com.mobinlife.jflake.benchmark.standin.InMemoryRedisServer;
+import com.mobinlife.jflake.benchmark.standin.RedisLeaseScripts;
+import com.mobinlife.jflake.generatorid.AbstractGeneratorIDProvider;
+import com.mobinlife.jflake.generatorid.DynamoGeneratorIDProvider;
+import com.mobinlife.jflake.generatorid.RedisGeneratorIDProvider;
+import com.mobinlife.jflake.generatorid.configuration.DynamoGeneratorIDConfiguration;
+import com.mobinlife.jflake.generatorid.configuration.RedisGeneratorIDConfiguration;
+import com.mobinlife.jflake.metrics.Histogram;
+import com.mobinlife.jflake.metrics.HistogramSnapshot;
+import com.mobinlife.jflake.metrics.JFlakeMetrics;
+import com.mobinlife.jflake.metrics.JFlakeMetricsSnapshot;
+
+/**
+ * Soak and load test: threads call getId() at a target rate for a given duration, on a single JFlake or on a
+ * JFlakePool whose generator IDs are leased from in-process Redis or DynamoDB stand-ins. The latency of every call
+ * is recorded, every ID is checked for uniqueness and for being greater than the previous ID the thread got from
+ * the same generator. Exits with status 1 if a duplicate or an out of order ID was found.
+ * <pre>
+ * java -cp target/benchmarks.jar com.mobinlife.jflake.benchmark.SoakTest source=redis generators=4 threads=8 rate=1000000 duration=600
+ * </pre>
+ * Options, as name=value arguments:
+ * <ul>
+ * <li>source: jflake (default), redis or dynamo</li>
+ * <li>threads: number of calling threads, 4 by default</li>
+ * <li>rate: target IDs/s across all threads, 0 (the default) for as fast as possible. With a target rate, the
+ * latency is measured from the time each call was scheduled, so stalls are not hidden by the calls they delay</li>
+ * <li>duration: in seconds, 60 by default</li>
+ * <li>generators: size of the pool with redis and dynamo, 4 by default</li>
+ * <li>lockFree, policy (a SequenceExhaustionPolicy, SPIN by default), maxBurstDrift: generator configuration</li>
+ * <li>latencyMicros: delay of every request to the stand-ins, 0 by default</li>
+ * <li>window: uniqueness checked within a time window of that many ms of ID timestamps, 0 (the default) for the
+ * whole run</li>
+ * <li>expectedIds: number of IDs the uniqueness set is sized for, derived from rate and duration (or window) by
+ * default, 50 million without a target rate. The check stops, without failing the run, if more IDs are issued</li>
+ * <li>report: seconds between progress lines, 10 by default</li>
+ * </ul>
+ *
+ */
+public class SoakTest {
+
+	private static final String TABLE = "jflake-soak";
+	private static final long DEFAULT_EXPECTED_IDS = 50000000;
+
+	/**
+	 * Generator under test
+	 */
+	private interface IdSource {
+		long getId() throws Exception;
+	}
+
+	private final String source;
+	private final int threads;
+	private final long rate;
+	private final long durationSeconds;
+	private final int generators;
+	private final long latencyMicros;
+	private final long windowMillis;
+	private final long expectedIds;
+	private final long reportSeconds;
+	private final JFlakeConfiguration template;
+	private final JFlakeMetrics metrics = new JFlakeMetrics();
+	private final IdDecoder decoder;
+
+	private final Histogram latencyNanos = new Histogram();
+	private final LongAdder issued = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder outOfOrder = new LongAdder();
+	private final LongAdder exhausted = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final AtomicReference<Exception> firstFailure = new AtomicReference<Exception>();
+	private final AtomicBoolean setFull = new AtomicBoolean(false);
+	private volatile OffHeapLongSet ids;
+
+	private InMemoryRedisServer redis;
+	private JFlakePool pool;
+
+	public SoakTest(Properties options){
+		this.source = options.getProperty("source", "jflake");
+		if(!"jflake".equals(source) && !"redis".equals(source) && !"dynamo".equals(source)){
+			throw new IllegalArgumentException("source must be jflake, redis or dynamo");
+		}
+		this.threads = Integer.parseInt(options.getProperty("threads", "4"));
+		this.rate = Long.parseLong(options.getProperty("rate", "0"));
+		this.durationSeconds = Long.parseLong(options.getProperty("duration", "60"));
+		this.generators = Integer.parseInt(options.getProperty("generators", "4"));
+		this.latencyMicros = Long.parseLong(options.getProperty("latencyMicros", "0"));
+		this.windowMillis = Long.parseLong(options.getProperty("window", "0"));
+		this.reportSeconds = Long.parseLong(options.getProperty("report", "10"));
+		if(threads <= 0 || rate < 0 || durationSeconds <= 0 || generators <= 0 || windowMillis < 0 || reportSeconds <= 0){
+			throw new IllegalArgumentException("threads, duration, generators and report must be positive, rate and window cannot be negative");
+		}
+		long span = windowMillis > 0 ? windowMillis : durationSeconds * 1000;
+		this.expectedIds = Long.parseLong(options.getProperty("expectedIds",
+				String.valueOf(rate > 0 ? rate * span / 1000 / 10 * 11 + 1024 : DEFAULT_EXPECTED_IDS)));
+		this.template = new JFlakeConfiguration(0)
+				.withLockFree(Boolean.parseBoolean(options.getProperty("lockFree", "false")))
+				.withExhaustionPolicy(SequenceExhaustionPolicy.valueOf(options.getProperty("policy", "SPIN")))
+				.withMaxBurstDrift(Long.parseLong(options.getProperty("maxBurstDrift", "0")))
+				.withMetrics(metrics);
+		this.decoder = new IdDecoder(template.getLayout());
+	}
+
+	/**
+	 * Runs the test and prints its report
+	 * @param out
+	 * @return true if every ID was unique and in order
+	 */
+	public boolean run(PrintStream out) throws Exception {
+		IdLayout layout = template.getLayout();
+		ids = windowMillis > 0 ? new OffHeapLongSet(expectedIds, layout, windowMillis) : new OffHeapLongSet(expectedIds);
+		IdSource idSource = createSource();
+		out.println("source=" + source + (pool != null ? ", generators=" + pool.size() : "") + ", threads=" + threads
+				+ ", rate=" + (rate > 0 ? rate + " ids/s" : "unlimited") + ", duration=" + durationSeconds + "s, "
+				+ (windowMillis > 0 ? "window=" + windowMillis + "ms, " : "") + "uniqueness set of "
+				+ ids.getMemoryUsage() / (1024 * 1024) + " MB");
+		try {
+			long start = System.nanoTime();
+			long end = start + durationSeconds * 1000000000L;
+			List<Thread> workers = new ArrayList<Thread>();
+			for(int i = 0; i < threads; i++){
+				Thread worker = new Thread(worker(idSource, start, end), "jflake-soak-" + i);
+				workers.add(worker);
+				worker.start();
+			}
+			long lastIssued = 0;
+			long lastReport = start;
+			for(Thread worker : workers){
+				while(worker.isAlive()){
+					worker.join(100);
+					long now = System.nanoTime();
+					if(now - lastReport >= reportSeconds * 1000000000L){
+						long count = issued.sum();
+						out.println(String.format("%6ds %,15d ids %,12.0f ids/s", (now - start) / 1000000000L, count,
+								(count - lastIssued) * 1e9 / (now - lastReport)));
+						lastIssued = count;
+						lastReport = now;
+					}
+				}
+			}
+			return report(out, System.nanoTime() - start);
+		} finally {
+			if(pool != null){
+				pool.close();
+			}
+			if(redis != null){
+				redis.stop();
+			}
+		}
+	}
+
+	private IdSource createSource() throws Exception {
+		if("jflake".equals(source)){
+			final JFlake jflake = JFlake.createJFlakeInstance(new JFlakeConfiguration(1, template));
+			return new IdSource() {
+				public long getId() throws Exception {
+					return jflake.getId();
+				}
+			};
+		}
+		Properties properties = new Properties();
+		List<AbstractGeneratorIDProvider> providers = new ArrayList<AbstractGeneratorIDProvider>();
+		if("redis".equals(source)){
+			redis = new InMemoryRedisServer(latencyMicros);
+			RedisLeaseScripts.register(redis);
+			properties.setProperty("redisHashKey", TABLE);
+			properties.setProperty("redisHost", redis.getHost());
+			properties.setProperty("redisPort", String.valueOf(redis.getPort()));
+			for(int i = 0; i < generators; i++){
+				providers.add(new RedisGeneratorIDProvider(new RedisGeneratorIDConfiguration(properties)));
+			}
+		} else {
+			InMemoryDynamoDB dynamo = new InMemoryDynamoDB(latencyMicros, 100);
+			dynamo.createTable(TABLE, "id");
+			properties.setProperty("dynamoTable", TABLE);
+			for(int i = 0; i < generators; i++){
+				providers.add(new DynamoGeneratorIDProvider(new DynamoGeneratorIDConfiguration(dynamo.asClient(), properties)));
+			}
+		}
+		pool = JFlakePool.create(providers, template);
+		return new IdSource() {
+			public long getId() throws Exception {
+				return pool.getId();
+			}
+		};
+	}
+
+	private Runnable worker(final IdSource idSource, final long start, final long end){
+		final long intervalNanos = rate > 0 ? (long) (threads * 1e9 / rate) : 0;
+		return new Runnable() {
+			public void run() {
+				// last ID this thread got from each generator
+				long[] lastIds = new long[decoder.getLayout().getMaxGeneratorId() + 1];
+				long count = 0;
+				long calls = 0;
+				while(true){
+					long callStart;
+					if(intervalNanos > 0){
+						callStart = start + calls * intervalNanos;
+						if(callStart >= end){
+							break;
+						}
+						long wait;
+						while((wait = callStart - System.nanoTime()) > 0){
+							LockSupport.parkNanos(wait);
+						}
+					} else {
+						callStart = System.nanoTime();
+						if(callStart >= end){
+							break;
+						}
+					}
+					calls++;
+					long id;
+					try {
+						id = idSource.getId();
+					} catch(SequenceExhaustedException e){
+						exhausted.increment();
+						continue;
+					} catch(Exception e){
+						failures.increment();
+						firstFailure.compareAndSet(null, e);
+						continue;
+					}
+					latencyNanos.record(System.nanoTime() - callStart);
+					count++;
+					int generatorId = decoder.generatorIdOf(id);
+					if(id <= lastIds[generatorId]){
+						outOfOrder.increment();
+					}
+					lastIds[generatorId] = id;
+					if(!setFull.get()){
+						try {
+							if(!ids.add(id)){
+								rejected.increment();
+							}
+						} catch(IllegalStateException e){
+							setFull.set(true);
+						}
+					}
+					if((count & 1023) == 0){
+						issued.add(1024);
+					}
+				}
+				issued.add(count & 1023);
+			}
+		};
+	}
+
+	private boolean report(PrintStream out, long elapsedNanos){
+		long count = issued.sum();
+		HistogramSnapshot latency = latencyNanos.snapshot();
+		JFlakeMetricsSnapshot generatorMetrics = metrics.snapshot();
+		long duplicates = rejected.sum() - ids.getExpiredCount();
+		out.println();
+		out.println(String.format("ids:          %,d in %.1fs, %,.0f ids/s", count, elapsedNanos / 1e9,
+				count * 1e9 / elapsedNanos));
+		out.println(String.format("latency (us): p50=%.2f p99=%.2f p99.9=%.2f max=%.2f", latency.getPercentile(50) / 1e3,
+				latency.getPercentile(99) / 1e3, latency.getPercentile(99.9) / 1e3, latency.getMax() / 1e3));
+		out.println(String.format("exhaustion:   %,d exhaustion events, %,d waits (p99 %,dus), %,d calls failed on exhaustion",
+				generatorMetrics.getExhaustionEvents(), generatorMetrics.getWaits(),
+				generatorMetrics.getWaitTimeMicros().getPercentile(99), exhausted.sum()));
+		out.println(String.format("failures:     %,d%s", failures.sum(),
+				firstFailure.get() != null ? ", first: " + firstFailure.get() : ""));
+		out.println(String.format("uniqueness:   %,d duplicates, %,d out of order%s", duplicates, outOfOrder.sum(),
+				setFull.get() ? ", only checked for the first " + ids.size() + " ids (expectedIds too low)"
+						: ids.getExpiredCount() > 0 ? ", " + ids.getExpiredCount() + " ids older than the window not checked" : ""));
+		boolean passed = duplicates == 0 && outOfOrder.sum() == 0;
+		out.println(passed ? "PASSED" : "FAILED");
+		return passed;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Properties options = new Properties();
+		for(String arg : args){
+			int equals = arg.indexOf('=');
+			if(equals <= 0){
+				System.err.println("Usage: SoakTest [source=jflake|redis|dynamo] [threads=4] [rate=0] [duration=60] "
+						+ "[generators=4] [lockFree=false] [policy=SPIN] [maxBurstDrift=0] [latencyMicros=0] [window=0] "
+						+ "[expectedIds=...] [report=10]");
+				System.exit(2);
+			}
+			options.setProperty(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		System.exit(new SoakTest(options).run(System.out) ? 0 : 1);
+	}
+
+}
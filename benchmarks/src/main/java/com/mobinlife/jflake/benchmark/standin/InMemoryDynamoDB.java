@@ -0,0 +1,233 @@
+package com.mobinlife.jflake.benchmark.standin;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.TableStatus;
+
+/**
+ * In-process stand-in for DynamoDB, implementing the subset of AmazonDynamoDB used by the lease providers:
+ * describeTable, scan (paginated), getItem, and putItem / deleteItem with "Expected" conditions.
+ * Every request can be delayed to simulate a network round trip, and requests are counted.
+ *
+ */
+public class InMemoryDynamoDB implements InvocationHandler {
+
+	private final Map<String, Table> tables = new HashMap<String, Table>();
+	private final AtomicLong requestCount = new AtomicLong();
+	private final long latencyNanos;
+	private final int scanPageSize;
+
+	/**
+	 *
+	 * @param latencyMicros simulated round trip time of each request, in microseconds
+	 * @param scanPageSize maximum number of items returned by a scan page
+	 */
+	public InMemoryDynamoDB(long latencyMicros, int scanPageSize){
+		this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+		this.scanPageSize = scanPageSize;
+	}
+
+	public InMemoryDynamoDB(){
+		this(0, 100);
+	}
+
+	/**
+	 *
+	 * @return an AmazonDynamoDB client backed by this stand-in
+	 */
+	public AmazonDynamoDB asClient(){
+		return (AmazonDynamoDB) Proxy.newProxyInstance(AmazonDynamoDB.class.getClassLoader()
+				, new Class<?>[] { AmazonDynamoDB.class }, this);
+	}
+
+	public synchronized void createTable(String tableName, String hashKeyName){
+		tables.put(tableName, new Table(hashKeyName));
+	}
+
+	/**
+	 * Removes every item of a table
+	 */
+	public synchronized void clearTable(String tableName){
+		table(tableName).items.clear();
+	}
+
+	/**
+	 * Writes an item without any condition nor simulated latency, to prepare a scenario
+	 */
+	public synchronized void putItemDirectly(String tableName, Map<String, AttributeValue> item){
+		Table table = table(tableName);
+		table.items.put(table.key(item), new HashMap<String, AttributeValue>(item));
+	}
+
+	public synchronized int itemCount(String tableName){
+		return table(tableName).items.size();
+	}
+
+	/**
+	 *
+	 * @return number of requests received, i.e. of simulated round trips
+	 */
+	public long getRequestCount(){
+		return requestCount.get();
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if(method.getDeclaringClass() == Object.class){
+			return method.invoke(this, args);
+		}
+		String name = method.getName();
+		Object request = args != null && args.length == 1 ? args[0] : null;
+
+		if(name.equals("shutdown") || name.equals("setEndpoint") || name.equals("setRegion")){
+			return null;
+		}
+		requestCount.incrementAndGet();
+		if(latencyNanos > 0){
+			LockSupport.parkNanos(latencyNanos);
+		}
+
+		if(request instanceof DescribeTableRequest){
+			return describeTable((DescribeTableRequest) request);
+		} else if(request instanceof ScanRequest){
+			return scan((ScanRequest) request);
+		} else if(request instanceof GetItemRequest){
+			return getItem((GetItemRequest) request);
+		} else if(request instanceof PutItemRequest){
+			return putItem((PutItemRequest) request);
+		} else if(request instanceof DeleteItemRequest){
+			return deleteItem((DeleteItemRequest) request);
+		}
+		throw new UnsupportedOperationException(name + " is not supported by the DynamoDB stand-in");
+	}
+
+	private synchronized DescribeTableResult describeTable(DescribeTableRequest request){
+		table(request.getTableName());
+		return new DescribeTableResult().withTable(new TableDescription()
+				.withTableName(request.getTableName())
+				.withTableStatus(TableStatus.ACTIVE));
+	}
+
+	private synchronized ScanResult scan(ScanRequest request){
+		Table table = table(request.getTableName());
+		int limit = request.getLimit() != null ? Math.min(request.getLimit(), scanPageSize) : scanPageSize;
+
+		Map<String, Map<String, AttributeValue>> remaining = table.items;
+		if(request.getExclusiveStartKey() != null){
+			remaining = table.items.tailMap(table.key(request.getExclusiveStartKey()), false);
+		}
+
+		List<Map<String, AttributeValue>> page = new ArrayList<Map<String, AttributeValue>>();
+		Map<String, AttributeValue> lastKey = null;
+		for(Map<String, AttributeValue> item : remaining.values()){
+			if(page.size() == limit){
+				break;
+			}
+			page.add(new HashMap<String, AttributeValue>(item));
+			lastKey = new HashMap<String, AttributeValue>();
+			lastKey.put(table.hashKeyName, item.get(table.hashKeyName));
+		}
+		ScanResult result = new ScanResult().withItems(page).withCount(page.size());
+		if(page.size() == limit && remaining.size() > limit){
+			result.setLastEvaluatedKey(lastKey);
+		}
+		return result;
+	}
+
+	private synchronized GetItemResult getItem(GetItemRequest request){
+		Table table = table(request.getTableName());
+		Map<String, AttributeValue> item = table.items.get(table.key(request.getKey()));
+		return new GetItemResult().withItem(item == null ? null : new HashMap<String, AttributeValue>(item));
+	}
+
+	private synchronized PutItemResult putItem(PutItemRequest request){
+		Table table = table(request.getTableName());
+		String key = table.key(request.getItem());
+		checkExpected(table.items.get(key), request.getExpected());
+		table.items.put(key, new HashMap<String, AttributeValue>(request.getItem()));
+		return new PutItemResult();
+	}
+
+	private synchronized DeleteItemResult deleteItem(DeleteItemRequest request){
+		Table table = table(request.getTableName());
+		String key = table.key(request.getKey());
+		checkExpected(table.items.get(key), request.getExpected());
+		table.items.remove(key);
+		return new DeleteItemResult();
+	}
+
+	private void checkExpected(Map<String, AttributeValue> current, Map<String, ExpectedAttributeValue> expected){
+		if(expected == null){
+			return;
+		}
+		for(Entry<String, ExpectedAttributeValue> condition : expected.entrySet()){
+			AttributeValue value = current == null ? null : current.get(condition.getKey());
+			ExpectedAttributeValue expectedValue = condition.getValue();
+			boolean satisfied;
+			if(Boolean.FALSE.equals(expectedValue.isExists())){
+				satisfied = value == null;
+			} else if(expectedValue.getValue() != null){
+				satisfied = expectedValue.getValue().equals(value);
+			} else {
+				satisfied = value != null;
+			}
+			if(!satisfied){
+				throw new ConditionalCheckFailedException("The conditional request failed");
+			}
+		}
+	}
+
+	private Table table(String tableName){
+		Table table = tables.get(tableName);
+		if(table == null){
+			throw new ResourceNotFoundException("Requested resource not found: Table: " + tableName + " not found");
+		}
+		return table;
+	}
+
+	private static class Table {
+
+		private final String hashKeyName;
+		private final TreeMap<String, Map<String, AttributeValue>> items = new TreeMap<String, Map<String, AttributeValue>>();
+
+		Table(String hashKeyName){
+			this.hashKeyName = hashKeyName;
+		}
+
+		String key(Map<String, AttributeValue> item){
+			AttributeValue value = item.get(hashKeyName);
+			if(value == null){
+				throw new IllegalArgumentException("Missing hash key " + hashKeyName);
+			}
+			return value.getN() != null ? "N" + value.getN() : "S" + value.getS();
+		}
+
+	}
+
+}
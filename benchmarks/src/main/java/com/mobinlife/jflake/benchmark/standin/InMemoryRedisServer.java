@@ -0,0 +1,472 @@
+package com.mobinlife.jflake.benchmark.standin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process stand-in for a Redis server, speaking the Redis protocol on a local port so that Jedis clients can
+ * connect to it. Implements the hash, transaction (WATCH / MULTI / EXEC) and scripting commands used by the lease
+ * providers. Lua is not interpreted: scripts must be registered with a Java emulation beforehand.
+ * Commands are executed one at a time, like on a real Redis server, and can be delayed to simulate a round trip.
+ *
+ */
+public class InMemoryRedisServer {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Java emulation of a Lua script
+	 */
+	public interface Script {
+
+		/**
+		 * Runs the script, with the server lock held
+		 * @return the script reply: null, a Long, a String or a List of those
+		 */
+		public Object execute(InMemoryRedisServer server, List<String> keys, List<String> args);
+
+	}
+
+	private final Map<String, Map<String, String>> hashes = new HashMap<String, Map<String, String>>();
+	private final Map<String, Long> keyVersions = new HashMap<String, Long>();
+	private final Map<String, Script> scriptsBySha = new HashMap<String, Script>();
+	private final Map<String, Script> scriptsBySource = new HashMap<String, Script>();
+	private final Map<String, String> loadedScripts = new HashMap<String, String>();
+	private final AtomicLong commandCount = new AtomicLong();
+	private final ServerSocket serverSocket;
+	private final long latencyNanos;
+	private volatile boolean running = true;
+	private long version;
+
+	/**
+	 * Starts the server on a free local port
+	 * @param latencyMicros simulated round trip time of each command, in microseconds
+	 */
+	public InMemoryRedisServer(long latencyMicros) throws IOException {
+		this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+		this.serverSocket = new ServerSocket(0, 128, InetAddress.getByName("127.0.0.1"));
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				acceptConnections();
+			}
+		}, "in-memory-redis-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public InMemoryRedisServer() throws IOException {
+		this(0);
+	}
+
+	public String getHost(){
+		return "127.0.0.1";
+	}
+
+	public int getPort(){
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 *
+	 * @return number of commands received, i.e. of simulated round trips for non pipelined clients
+	 */
+	public long getCommandCount(){
+		return commandCount.get();
+	}
+
+	/**
+	 * Registers the Java emulation of a Lua script, making it available to EVAL, EVALSHA and SCRIPT LOAD
+	 * @param source Lua source of the script, as sent by the client
+	 * @param script emulation
+	 */
+	public synchronized void registerScript(String source, Script script){
+		scriptsBySource.put(source, script);
+		scriptsBySha.put(sha1(source), script);
+	}
+
+	public synchronized void flushAll(){
+		for(String key : hashes.keySet()){
+			touch(key);
+		}
+		hashes.clear();
+		loadedScripts.clear();
+	}
+
+	public void stop(){
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+
+	/**
+	 * Hash accessors, for scripts and scenario preparation
+	 */
+	public synchronized Map<String, String> hgetAll(String key){
+		Map<String, String> hash = hashes.get(key);
+		return hash == null ? new LinkedHashMap<String, String>() : new LinkedHashMap<String, String>(hash);
+	}
+
+	public synchronized String hget(String key, String field){
+		Map<String, String> hash = hashes.get(key);
+		return hash == null ? null : hash.get(field);
+	}
+
+	public synchronized long hset(String key, String field, String value){
+		Map<String, String> hash = hashes.get(key);
+		if(hash == null){
+			hash = new LinkedHashMap<String, String>();
+			hashes.put(key, hash);
+		}
+		touch(key);
+		return hash.put(field, value) == null ? 1 : 0;
+	}
+
+	public synchronized long hdel(String key, String field){
+		Map<String, String> hash = hashes.get(key);
+		if(hash == null || hash.remove(field) == null){
+			return 0;
+		}
+		if(hash.isEmpty()){
+			hashes.remove(key);
+		}
+		touch(key);
+		return 1;
+	}
+
+	private void touch(String key){
+		keyVersions.put(key, ++version);
+	}
+
+	private synchronized long keyVersion(String key){
+		Long keyVersion = keyVersions.get(key);
+		return keyVersion == null ? 0 : keyVersion;
+	}
+
+	private void acceptConnections(){
+		while(running){
+			try {
+				final Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Thread connection = new Thread(new Runnable() {
+					public void run() {
+						serve(socket);
+					}
+				}, "in-memory-redis-connection");
+				connection.setDaemon(true);
+				connection.start();
+			} catch (IOException e) {
+				// server socket closed
+			}
+		}
+	}
+
+	private void serve(Socket socket){
+		Connection connection = new Connection();
+		try {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+			while(running){
+				List<String> command = readCommand(in);
+				if(command == null){
+					break;
+				}
+				commandCount.incrementAndGet();
+				if(latencyNanos > 0){
+					LockSupport.parkNanos(latencyNanos);
+				}
+				Object reply = connection.handle(command);
+				writeReply(out, reply);
+				out.flush();
+				if("QUIT".equalsIgnoreCase(command.get(0))){
+					break;
+				}
+			}
+		} catch (IOException e) {
+			// client disconnected
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * State of a client connection: watched keys and queued transaction
+	 */
+	private class Connection {
+
+		private final Map<String, Long> watched = new HashMap<String, Long>();
+		private List<List<String>> queued = null;
+
+		Object handle(List<String> command){
+			String name = command.get(0).toUpperCase();
+			if(queued != null && !name.equals("EXEC") && !name.equals("DISCARD") && !name.equals("MULTI")
+					&& !name.equals("WATCH")){
+				queued.add(command);
+				return new StatusReply("QUEUED");
+			}
+			if(name.equals("MULTI")){
+				if(queued != null){
+					return new ErrorReply("ERR MULTI calls can not be nested");
+				}
+				queued = new ArrayList<List<String>>();
+				return new StatusReply("OK");
+			} else if(name.equals("EXEC")){
+				if(queued == null){
+					return new ErrorReply("ERR EXEC without MULTI");
+				}
+				List<List<String>> commands = queued;
+				queued = null;
+				synchronized(InMemoryRedisServer.this){
+					for(Entry<String, Long> watchedKey : watched.entrySet()){
+						if(keyVersion(watchedKey.getKey()) != watchedKey.getValue()){
+							watched.clear();
+							return NullMultiBulk.INSTANCE;
+						}
+					}
+					watched.clear();
+					List<Object> replies = new ArrayList<Object>();
+					for(List<String> queuedCommand : commands){
+						replies.add(execute(queuedCommand));
+					}
+					return replies;
+				}
+			} else if(name.equals("DISCARD")){
+				queued = null;
+				watched.clear();
+				return new StatusReply("OK");
+			} else if(name.equals("WATCH")){
+				if(queued != null){
+					return new ErrorReply("ERR WATCH inside MULTI is not allowed");
+				}
+				for(String key : command.subList(1, command.size())){
+					watched.put(key, keyVersion(key));
+				}
+				return new StatusReply("OK");
+			} else if(name.equals("UNWATCH")){
+				watched.clear();
+				return new StatusReply("OK");
+			}
+			return execute(command);
+		}
+
+	}
+
+	private synchronized Object execute(List<String> command){
+		String name = command.get(0).toUpperCase();
+		List<String> args = command.subList(1, command.size());
+		if(name.equals("PING")){
+			return new StatusReply("PONG");
+		} else if(name.equals("AUTH") || name.equals("SELECT") || name.equals("QUIT")){
+			return new StatusReply("OK");
+		} else if(name.equals("FLUSHALL") || name.equals("FLUSHDB")){
+			flushAll();
+			return new StatusReply("OK");
+		} else if(name.equals("HGETALL")){
+			List<Object> reply = new ArrayList<Object>();
+			for(Entry<String, String> field : hgetAll(args.get(0)).entrySet()){
+				reply.add(field.getKey());
+				reply.add(field.getValue());
+			}
+			return reply;
+		} else if(name.equals("HGET")){
+			return hget(args.get(0), args.get(1));
+		} else if(name.equals("HSET")){
+			return hset(args.get(0), args.get(1), args.get(2));
+		} else if(name.equals("HDEL")){
+			long removed = 0;
+			for(String field : args.subList(1, args.size())){
+				removed += hdel(args.get(0), field);
+			}
+			return removed;
+		} else if(name.equals("HLEN")){
+			return (long) hgetAll(args.get(0)).size();
+		} else if(name.equals("DEL")){
+			long removed = 0;
+			for(String key : args){
+				if(hashes.remove(key) != null){
+					touch(key);
+					removed++;
+				}
+			}
+			return removed;
+		} else if(name.equals("SCRIPT")){
+			return script(args);
+		} else if(name.equals("EVAL")){
+			Script script = scriptsBySource.get(args.get(0));
+			if(script == null){
+				return new ErrorReply("ERR Lua is not supported by the Redis stand-in, script must be registered");
+			}
+			// like Redis, EVAL caches the script for later EVALSHA calls
+			loadedScripts.put(sha1(args.get(0)), args.get(0));
+			return eval(script, args);
+		} else if(name.equals("EVALSHA")){
+			Script script = loadedScripts.containsKey(args.get(0)) ? scriptsBySha.get(args.get(0)) : null;
+			if(script == null){
+				return new ErrorReply("NOSCRIPT No matching script. Please use EVAL.");
+			}
+			return eval(script, args);
+		}
+		return new ErrorReply("ERR unknown command '" + command.get(0) + "'");
+	}
+
+	private Object script(List<String> args){
+		String subCommand = args.get(0).toUpperCase();
+		if(subCommand.equals("LOAD")){
+			String sha = sha1(args.get(1));
+			if(!scriptsBySha.containsKey(sha)){
+				return new ErrorReply("ERR Lua is not supported by the Redis stand-in, script must be registered");
+			}
+			loadedScripts.put(sha, args.get(1));
+			return sha;
+		} else if(subCommand.equals("FLUSH")){
+			loadedScripts.clear();
+			return new StatusReply("OK");
+		} else if(subCommand.equals("EXISTS")){
+			List<Object> reply = new ArrayList<Object>();
+			for(String sha : args.subList(1, args.size())){
+				reply.add(loadedScripts.containsKey(sha) ? 1L : 0L);
+			}
+			return reply;
+		}
+		return new ErrorReply("ERR unknown SCRIPT subcommand");
+	}
+
+	private Object eval(Script script, List<String> args){
+		int keyCount = Integer.parseInt(args.get(1));
+		List<String> keys = new ArrayList<String>(args.subList(2, 2 + keyCount));
+		List<String> scriptArgs = new ArrayList<String>(args.subList(2 + keyCount, args.size()));
+		return script.execute(this, keys, scriptArgs);
+	}
+
+	private static String sha1(String source){
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(UTF8));
+			StringBuilder sha = new StringBuilder();
+			for(byte b : digest){
+				sha.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return sha.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Protocol
+	 */
+
+	private static List<String> readCommand(InputStream in) throws IOException {
+		int type = in.read();
+		if(type == -1){
+			return null;
+		}
+		if(type != '*'){
+			throw new IOException("Inline commands are not supported");
+		}
+		int count = Integer.parseInt(readLine(in));
+		List<String> command = new ArrayList<String>(count);
+		for(int i = 0; i < count; i++){
+			if(in.read() != '$'){
+				throw new IOException("Bulk string expected");
+			}
+			int length = Integer.parseInt(readLine(in));
+			byte[] bytes = new byte[length];
+			int read = 0;
+			while(read < length){
+				int n = in.read(bytes, read, length - read);
+				if(n == -1){
+					throw new EOFException();
+				}
+				read += n;
+			}
+			in.read(); // \r
+			in.read(); // \n
+			command.add(new String(bytes, UTF8));
+		}
+		return command;
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while((c = in.read()) != '\r'){
+			if(c == -1){
+				throw new EOFException();
+			}
+			line.append((char) c);
+		}
+		in.read(); // \n
+		return line.toString();
+	}
+
+	private static void writeReply(OutputStream out, Object reply) throws IOException {
+		if(reply == null){
+			out.write("$-1\r\n".getBytes(UTF8));
+		} else if(reply instanceof NullMultiBulk){
+			out.write("*-1\r\n".getBytes(UTF8));
+		} else if(reply instanceof StatusReply){
+			out.write(("+" + ((StatusReply) reply).message + "\r\n").getBytes(UTF8));
+		} else if(reply instanceof ErrorReply){
+			out.write(("-" + ((ErrorReply) reply).message + "\r\n").getBytes(UTF8));
+		} else if(reply instanceof Long){
+			out.write((":" + reply + "\r\n").getBytes(UTF8));
+		} else if(reply instanceof String){
+			byte[] bytes = ((String) reply).getBytes(UTF8);
+			out.write(("$" + bytes.length + "\r\n").getBytes(UTF8));
+			out.write(bytes);
+			out.write("\r\n".getBytes(UTF8));
+		} else if(reply instanceof List){
+			List<?> replies = (List<?>) reply;
+			out.write(("*" + replies.size() + "\r\n").getBytes(UTF8));
+			for(Object element : replies){
+				writeReply(out, element);
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported reply type " + reply.getClass());
+		}
+	}
+
+	private static class StatusReply {
+		private final String message;
+		StatusReply(String message){
+			this.message = message;
+		}
+	}
+
+	private static class ErrorReply {
+		private final String message;
+		ErrorReply(String message){
+			this.message = message;
+		}
+	}
+
+	private static class NullMultiBulk {
+		private static final NullMultiBulk INSTANCE = new NullMultiBulk();
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.mobinlife.jflake.benchmark.standin;
+
+import java.util.List;
+import java.util.Map;
+
+import com.mobinlife.jflake.generatorid.RedisGeneratorIDProvider;
+
+/**
+ * Java emulations of the Lua scripts of RedisGeneratorIDProvider, for the Redis stand-in
+ *
+ */
+public final class RedisLeaseScripts {
+
+	private RedisLeaseScripts(){
+	}
+
+	public static void register(InMemoryRedisServer server){
+		server.registerScript(RedisGeneratorIDProvider.LEASE_SCRIPT, new InMemoryRedisServer.Script() {
+			public Object execute(InMemoryRedisServer server, List<String> keys, List<String> args) {
+				long now = Long.parseLong(args.get(0));
+				int maxGeneratorId = Integer.parseInt(args.get(2));
+				Map<String, String> leases = server.hgetAll(keys.get(0));
+				for(int id = 0; id <= maxGeneratorId; id++){
+					if(!isTaken(leases.get(String.valueOf(id)), now)){
+						server.hset(keys.get(0), String.valueOf(id), args.get(1));
+						return (long) id;
+					}
+				}
+				return -1L;
+			}
+		});
+		server.registerScript(RedisGeneratorIDProvider.RENEW_SCRIPT, new InMemoryRedisServer.Script() {
+			public Object execute(InMemoryRedisServer server, List<String> keys, List<String> args) {
+				if(args.get(1).equals(server.hget(keys.get(0), args.get(0)))){
+					server.hset(keys.get(0), args.get(0), args.get(2));
+					return 1L;
+				}
+				return 0L;
+			}
+		});
+	}
+
+	/**
+	 * Same rule as the Lua script: a lease is taken unless it is missing or expired, unreadable entries are taken
+	 */
+	private static boolean isTaken(String expiration, long now){
+		if(expiration == null){
+			return false;
+		}
+		try {
+			return Long.parseLong(expiration) >= now;
+		} catch (NumberFormatException e) {
+			return true;
+		}
+	}
+
+}
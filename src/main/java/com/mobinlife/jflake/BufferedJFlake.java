@@ -0,0 +1,234 @@
+package com.mobinlife.jflake;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.mobinlife.jflake.time.TimeSource;
+
+/**
+ * Front-end of a JFlake generator keeping IDs generated in advance in a bounded lock-free ring buffer.
+ * A background producer thread fills the buffer in batches, and getId() takes a ready ID with a single
+ * compare-and-swap on the consumer index, so callers never wait on the generator lock nor on a millisecond change.
+ *
+ * IDs waiting in the buffer get older: an ID whose timestamp is more than stalenessMillis away from the current
+ * time, in either direction, is never returned, it is discarded by the producer (or by the caller) and a fresh one
+ * is used instead. The producer does not fill the buffer while the generator is ahead of the clock, e.g. in burst
+ * mode. When the buffer is empty, getId() falls back to the underlying generator. IDs stay unique but, as they are
+ * taken by several threads from a shared buffer, only roughly time ordered across threads.
+ *
+ * A producer failing, e.g. on a ClockRegressionException from the time source, retries every millisecond; while it
+ * fails, getId() throws its exception once the buffer is empty.
+ *
+ */
+public class BufferedJFlake {
+
+	private final JFlake jflake;
+	private final TimeSource timeSource;
+	private final long stalenessMillis;
+	private final int timestampShift;
+	private final long epoch;
+
+	private final int capacity;
+	private final int mask;
+	private final int batchSize;
+	private final long[] ids;
+	// sequence of each slot: position + 1 once the ID of position is published, position + capacity once consumed
+	private final AtomicLongArray slotSequences;
+	private final AtomicLong head = new AtomicLong();
+	private long tail = 0; // producer thread only
+	private volatile long publishedTail = 0;
+
+	private final Thread producer;
+	private volatile boolean running = true;
+	private volatile RuntimeException failure = null;
+
+	/**
+	 *
+	 * @param jflake underlying generator
+	 * @param capacity number of IDs kept in advance, rounded up to a power of two
+	 * @param stalenessMillis maximum distance between the timestamp of an ID and the current time when it is returned,
+	 * in ms
+	 */
+	public BufferedJFlake(JFlake jflake, int capacity, long stalenessMillis){
+		if(jflake == null){
+			throw new IllegalArgumentException("jflake cannot be null");
+		}
+		if(capacity < 2 || capacity > (1 << 30)){
+			throw new IllegalArgumentException("capacity must be between 2 and 2^30");
+		}
+		if(stalenessMillis < 1){
+			throw new IllegalArgumentException("stalenessMillis must be at least 1ms");
+		}
+		this.jflake = jflake;
+		this.timeSource = jflake.getTimeSource();
+		this.stalenessMillis = stalenessMillis;
+		this.timestampShift = jflake.getLayout().getTimestampShift();
+		this.epoch = jflake.getLayout().getEpoch();
+
+		this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = this.capacity - 1;
+		this.batchSize = Math.max(1, Math.min(this.capacity / 4, jflake.getLayout().getMaxSequence() + 1));
+		this.ids = new long[this.capacity];
+		this.slotSequences = new AtomicLongArray(this.capacity);
+		for(int i = 0; i < this.capacity; i++){
+			slotSequences.set(i, i);
+		}
+
+		this.producer = new Thread(new Runnable() {
+			public void run() {
+				produce();
+			}
+		}, "jflake-buffer-producer-" + jflake.getGeneratorId());
+		this.producer.setDaemon(true);
+		this.producer.start();
+	}
+
+	/**
+	 * Takes an ID from the buffer, or generates one directly if the buffer is empty
+	 * @return a unique ID
+	 * @throws Exception if the buffer is empty and the producer is failing, or the underlying generator fails, see
+	 * JFlake.getId()
+	 */
+	public long getId() throws Exception {
+		long now = timeSource.currentTimeMillis();
+		long oldestAllowed = now - stalenessMillis;
+		long newestAllowed = now + stalenessMillis;
+		while(true){
+			long id = take();
+			if(id == -1){
+				RuntimeException failed = failure;
+				if(failed != null){
+					throw new Exception("The producer of the buffer is failing", failed);
+				}
+				return jflake.getId();
+			}
+			long timestamp = timestampOf(id);
+			if(timestamp >= oldestAllowed && timestamp <= newestAllowed){
+				return id;
+			}
+			// stale, or ahead of a clock that went backward, discarded
+		}
+	}
+
+	/**
+	 *
+	 * @return approximate number of IDs ready in the buffer
+	 */
+	public int size(){
+		long size = publishedTail - head.get();
+		return (int) Math.max(0, Math.min(size, capacity));
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	public JFlake getJFlake(){
+		return jflake;
+	}
+
+	/**
+	 *
+	 * @return exception of the last attempt of the producer to fill the buffer, null if it succeeded
+	 */
+	public RuntimeException getProducerFailure(){
+		return failure;
+	}
+
+	/**
+	 * Stops the producer thread. getId() keeps working, from the remaining IDs then from the underlying generator
+	 */
+	public void stop(){
+		running = false;
+		LockSupport.unpark(producer);
+	}
+
+	/**
+	 *
+	 * @return the oldest ID of the buffer, or -1 if the buffer is empty
+	 */
+	private long take(){
+		while(true){
+			long position = head.get();
+			int index = (int) position & mask;
+			long sequence = slotSequences.get(index);
+			if(sequence < position + 1){
+				return -1; // not published yet
+			}
+			if(sequence == position + 1 && head.compareAndSet(position, position + 1)){
+				long id = ids[index];
+				slotSequences.lazySet(index, position + capacity);
+				return id;
+			}
+			// another consumer took it first
+		}
+	}
+
+	private void produce(){
+		long[] batch = new long[batchSize];
+		long idleParkNanos = TimeUnit.MICROSECONDS.toNanos(100);
+		long failureParkNanos = TimeUnit.MILLISECONDS.toNanos(1);
+		long lastTimestamp = Long.MIN_VALUE;
+		while(running){
+			int filled;
+			try {
+				evictStale();
+				if(capacity - (tail - head.get()) < batchSize || lastTimestamp > timeSource.currentTimeMillis()){
+					// not enough room for a batch, or the generator is ahead of the clock
+					LockSupport.parkNanos(idleParkNanos);
+					continue;
+				}
+				filled = jflake.fill(batch);
+				failure = null;
+			} catch (RuntimeException e) {
+				failure = e;
+				LockSupport.parkNanos(failureParkNanos);
+				continue;
+			}
+			if(filled == 0){
+				// exhausted, and the exhaustion policy does not wait
+				LockSupport.parkNanos(idleParkNanos);
+				continue;
+			}
+			lastTimestamp = timestampOf(batch[filled - 1]);
+			for(int i = 0; i < filled; i++){
+				int index = (int) tail & mask;
+				while(slotSequences.get(index) != tail){
+					// a consumer moved the head past this slot but has not read it yet
+					Thread.yield();
+				}
+				ids[index] = batch[i];
+				slotSequences.lazySet(index, tail + 1);
+				tail++;
+			}
+			publishedTail = tail;
+		}
+	}
+
+	/**
+	 * Discards the IDs of the head of the buffer that went stale while nobody consumed them
+	 */
+	private void evictStale(){
+		long oldestAllowed = timeSource.currentTimeMillis() - stalenessMillis;
+		while(true){
+			long position = head.get();
+			if(position == tail){
+				return;
+			}
+			int index = (int) position & mask;
+			if(slotSequences.get(index) != position + 1 || timestampOf(ids[index]) >= oldestAllowed){
+				return;
+			}
+			if(head.compareAndSet(position, position + 1)){
+				slotSequences.lazySet(index, position + capacity);
+			}
+		}
+	}
+
+	private long timestampOf(long id){
+		return (id >>> timestampShift) + epoch;
+	}
+
+}
@@ -0,0 +1,147 @@
+package com.mobinlife.jflake;
+
+/**
+ * Extracts the components of IDs generated with a given IdLayout: creation time, generator ID and sequence number.
+ * Nothing is allocated. The batch methods decode arrays of IDs into parallel primitive arrays, one component per
+ * simple counted loop, which the JIT compiler can unroll and vectorize.
+ *
+ */
+public final class IdDecoder {
+
+	public static final IdDecoder DEFAULT = new IdDecoder(IdLayout.DEFAULT);
+
+	private final IdLayout layout;
+	private final long epoch;
+	private final int timestampShift;
+	private final int generatorShift;
+	private final long generatorMask;
+	private final long sequenceMask;
+	private final long maxTimestamp;
+
+	public IdDecoder(IdLayout layout){
+		if(layout == null){
+			throw new IllegalArgumentException("layout cannot be null");
+		}
+		this.layout = layout;
+		this.epoch = layout.getEpoch();
+		this.timestampShift = layout.getTimestampShift();
+		this.generatorShift = layout.getGeneratorShift();
+		this.generatorMask = layout.getMaxGeneratorId();
+		this.sequenceMask = layout.getMaxSequence();
+		this.maxTimestamp = layout.getMaxTimestamp();
+	}
+
+	public IdLayout getLayout() {
+		return layout;
+	}
+
+	/**
+	 *
+	 * @return creation time of the ID, in ms since 1970-01-01 00:00 GMT
+	 */
+	public long timestampOf(long id){
+		return (id >>> timestampShift) + epoch;
+	}
+
+	public int generatorIdOf(long id){
+		return (int) ((id >>> generatorShift) & generatorMask);
+	}
+
+	public int sequenceOf(long id){
+		return (int) (id & sequenceMask);
+	}
+
+	/**
+	 * Smallest ID any generator can issue at timeMillis, or later. Together with maxIdAt(), turns a time interval
+	 * into an ID interval: the IDs created between from and to (inclusive) are exactly those between minIdAt(from)
+	 * and maxIdAt(to).
+	 * @param timeMillis time in ms since 1970-01-01 00:00 GMT
+	 * @return 0 if timeMillis is before the epoch, Long.MAX_VALUE if it is after the last time of the layout
+	 */
+	public long minIdAt(long timeMillis){
+		long timestamp = timeMillis - epoch;
+		if(timestamp <= 0){
+			return 0;
+		}
+		if(timestamp > maxTimestamp){
+			return Long.MAX_VALUE;
+		}
+		return timestamp << timestampShift;
+	}
+
+	/**
+	 * Largest ID any generator can issue at timeMillis, or earlier
+	 * @param timeMillis time in ms since 1970-01-01 00:00 GMT
+	 * @return -1 if timeMillis is before the epoch, Long.MAX_VALUE if it is after the last time of the layout
+	 * @see #minIdAt(long)
+	 */
+	public long maxIdAt(long timeMillis){
+		long timestamp = timeMillis - epoch;
+		if(timestamp < 0){
+			return -1;
+		}
+		if(timestamp >= maxTimestamp){
+			return Long.MAX_VALUE;
+		}
+		return ((timestamp + 1) << timestampShift) - 1;
+	}
+
+	/**
+	 * Decodes ids[0..ids.length) into the three destination arrays, which must be at least as long as ids.
+	 * A null destination array skips the corresponding component.
+	 */
+	public void decode(long[] ids, long[] timestamps, int[] generatorIds, int[] sequences){
+		decode(ids, 0, ids.length, timestamps, generatorIds, sequences, 0);
+	}
+
+	/**
+	 * Decodes ids[offset..offset+length) into the three destination arrays, from dstOffset on.
+	 * A null destination array skips the corresponding component.
+	 */
+	public void decode(long[] ids, int offset, int length, long[] timestamps, int[] generatorIds, int[] sequences
+			, int dstOffset){
+		if(timestamps != null){
+			timestamps(ids, offset, length, timestamps, dstOffset);
+		}
+		if(generatorIds != null){
+			generatorIds(ids, offset, length, generatorIds, dstOffset);
+		}
+		if(sequences != null){
+			sequences(ids, offset, length, sequences, dstOffset);
+		}
+	}
+
+	public void timestamps(long[] ids, int offset, int length, long[] dst, int dstOffset){
+		checkRanges(ids.length, offset, length, dst.length, dstOffset);
+		final int shift = timestampShift;
+		final long origin = epoch;
+		for(int i = 0; i < length; i++){
+			dst[dstOffset + i] = (ids[offset + i] >>> shift) + origin;
+		}
+	}
+
+	public void generatorIds(long[] ids, int offset, int length, int[] dst, int dstOffset){
+		checkRanges(ids.length, offset, length, dst.length, dstOffset);
+		final int shift = generatorShift;
+		final long mask = generatorMask;
+		for(int i = 0; i < length; i++){
+			dst[dstOffset + i] = (int) ((ids[offset + i] >>> shift) & mask);
+		}
+	}
+
+	public void sequences(long[] ids, int offset, int length, int[] dst, int dstOffset){
+		checkRanges(ids.length, offset, length, dst.length, dstOffset);
+		final long mask = sequenceMask;
+		for(int i = 0; i < length; i++){
+			dst[dstOffset + i] = (int) (ids[offset + i] & mask);
+		}
+	}
+
+	private static void checkRanges(int srcLength, int offset, int length, int dstLength, int dstOffset){
+		if(offset < 0 || length < 0 || dstOffset < 0 || offset > srcLength - length || dstOffset > dstLength - length){
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", source length "
+					+ srcLength + ", destination offset " + dstOffset + ", destination length " + dstLength);
+		}
+	}
+
+}
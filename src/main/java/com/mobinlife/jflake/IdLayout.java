@@ -0,0 +1,136 @@
+package com.mobinlife.jflake;
+
+/**
+ * Immutable bit layout of the IDs: from the most to the least significant bit, one unused sign bit, the time
+ * component (ms since the epoch), the generator ID and the sequence number.
+ * Shifts and masks are computed once at creation, so that JFlake only applies precomputed values on its hot path.
+ *
+ * The default layout is 41 time bits with an epoch on 1st January 2014 00:00 GMT, 9 generator bits and
+ * 13 sequence bits.
+ */
+public final class IdLayout {
+
+	public static final long DEFAULT_EPOCH = 1388534400000L; // 2014-01-01 00:00 GMT
+	public static final IdLayout DEFAULT = new IdLayout(9, 13, DEFAULT_EPOCH);
+
+	private static final int USABLE_BITS = 63;
+
+	private final int timeBits;
+	private final int generatorBits;
+	private final int sequenceBits;
+	private final long epoch;
+
+	private final int generatorShift;
+	private final int timestampShift;
+	private final long maxTimestamp;
+	private final int maxGeneratorId;
+	private final int maxSequence;
+
+	/**
+	 * Layout using all the bits left by the generator and sequence components for the time component
+	 * @param generatorBits bits of the generator ID
+	 * @param sequenceBits bits of the sequence number
+	 * @param epoch origin of the time component, in ms since 1970-01-01 00:00 GMT
+	 */
+	public IdLayout(int generatorBits, int sequenceBits, long epoch){
+		if(generatorBits < 0 || generatorBits > 31){
+			throw new IllegalArgumentException("generatorBits must be between 0 and 31");
+		}
+		if(sequenceBits < 1 || sequenceBits > 31){
+			throw new IllegalArgumentException("sequenceBits must be between 1 and 31");
+		}
+		if(USABLE_BITS - generatorBits - sequenceBits < 32){
+			throw new IllegalArgumentException("At least 32 bits must be left for the time component");
+		}
+		if(epoch < 0){
+			throw new IllegalArgumentException("epoch cannot be negative");
+		}
+		this.generatorBits = generatorBits;
+		this.sequenceBits = sequenceBits;
+		this.timeBits = USABLE_BITS - generatorBits - sequenceBits;
+		this.epoch = epoch;
+
+		this.generatorShift = sequenceBits;
+		this.timestampShift = sequenceBits + generatorBits;
+		this.maxTimestamp = (1L << timeBits) - 1;
+		this.maxGeneratorId = (1 << generatorBits) - 1;
+		this.maxSequence = (1 << sequenceBits) - 1;
+	}
+
+	/**
+	 * Same as the default layout, with another split between generator and sequence bits
+	 * @param generatorBits bits of the generator ID
+	 * @param sequenceBits bits of the sequence number
+	 */
+	public IdLayout(int generatorBits, int sequenceBits){
+		this(generatorBits, sequenceBits, DEFAULT_EPOCH);
+	}
+
+	public int getTimeBits() {
+		return timeBits;
+	}
+
+	public int getGeneratorBits() {
+		return generatorBits;
+	}
+
+	public int getSequenceBits() {
+		return sequenceBits;
+	}
+
+	/**
+	 *
+	 * @return origin of the time component, in ms since 1970-01-01 00:00 GMT
+	 */
+	public long getEpoch() {
+		return epoch;
+	}
+
+	public int getGeneratorShift() {
+		return generatorShift;
+	}
+
+	public int getTimestampShift() {
+		return timestampShift;
+	}
+
+	/**
+	 *
+	 * @return largest time component, in ms since the epoch
+	 */
+	public long getMaxTimestamp() {
+		return maxTimestamp;
+	}
+
+	public int getMaxGeneratorId() {
+		return maxGeneratorId;
+	}
+
+	public int getMaxSequence() {
+		return maxSequence;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj){
+			return true;
+		}
+		if(!(obj instanceof IdLayout)){
+			return false;
+		}
+		IdLayout other = (IdLayout) obj;
+		return generatorBits == other.generatorBits && sequenceBits == other.sequenceBits && epoch == other.epoch;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (epoch ^ (epoch >>> 32)) * 31 * 31 + generatorBits * 31 + sequenceBits;
+	}
+
+	@Override
+	public String toString() {
+		return "IdLayout[time=" + timeBits + ", generator=" + generatorBits + ", sequence=" + sequenceBits
+				+ ", epoch=" + epoch + "]";
+	}
+
+}
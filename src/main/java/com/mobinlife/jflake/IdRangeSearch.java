@@ -0,0 +1,176 @@
+package com.mobinlife.jflake;
+
+import java.nio.LongBuffer;
+
+/**
+ * Searches in columns of IDs sorted in increasing order, held in a long[] or a LongBuffer (e.g. a memory-mapped
+ * file). Combined with IdDecoder.minIdAt() and maxIdAt(), a time window query becomes two searches:
+ * <pre>
+ * int from = IdRangeSearch.lowerBound(ids, 0, n, decoder.minIdAt(start));
+ * int to = IdRangeSearch.upperBound(ids, from, n, decoder.maxIdAt(end));
+ * // ids[from..to) were created between start and end
+ * </pre>
+ * Binary searches take log2(n) steps. The galloping variants first probe exponentially growing distances from one
+ * end of the range, and take log2(d) steps when the answer is d positions away from it: for recent windows over
+ * time ordered data, use the *FromEnd variants.
+ *
+ */
+public final class IdRangeSearch {
+
+	private IdRangeSearch(){
+	}
+
+	/**
+	 *
+	 * @return index of the first element of ids[from..to) greater than or equal to key, to if none
+	 */
+	public static int lowerBound(long[] ids, int from, int to, long key){
+		checkRange(ids.length, from, to);
+		int low = from;
+		int high = to;
+		while(low < high){
+			int middle = (low + high) >>> 1;
+			if(ids[middle] < key){
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 *
+	 * @return index of the first element of ids[from..to) strictly greater than key, to if none
+	 */
+	public static int upperBound(long[] ids, int from, int to, long key){
+		checkRange(ids.length, from, to);
+		int low = from;
+		int high = to;
+		while(low < high){
+			int middle = (low + high) >>> 1;
+			if(ids[middle] <= key){
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Same result as lowerBound(), galloping from the start of the range
+	 */
+	public static int lowerBoundFromStart(long[] ids, int from, int to, long key){
+		checkRange(ids.length, from, to);
+		int bound = 1;
+		int previous = from;
+		while(previous + bound < to && ids[previous + bound - 1] < key){
+			previous += bound;
+			bound <<= 1;
+		}
+		return lowerBound(ids, previous, Math.min(previous + bound, to), key);
+	}
+
+	/**
+	 * Same result as lowerBound(), galloping from the end of the range
+	 */
+	public static int lowerBoundFromEnd(long[] ids, int from, int to, long key){
+		checkRange(ids.length, from, to);
+		int bound = 1;
+		int next = to;
+		while(next - bound > from && ids[next - bound] >= key){
+			next -= bound;
+			bound <<= 1;
+		}
+		return lowerBound(ids, Math.max(next - bound, from), next, key);
+	}
+
+	/**
+	 * Same result as upperBound(), galloping from the end of the range
+	 */
+	public static int upperBoundFromEnd(long[] ids, int from, int to, long key){
+		checkRange(ids.length, from, to);
+		int bound = 1;
+		int next = to;
+		while(next - bound > from && ids[next - bound] > key){
+			next -= bound;
+			bound <<= 1;
+		}
+		return upperBound(ids, Math.max(next - bound, from), next, key);
+	}
+
+	/**
+	 * LongBuffer variants, using absolute indexes: the position and limit of the buffer are not used nor modified
+	 */
+
+	public static int lowerBound(LongBuffer ids, int from, int to, long key){
+		checkRange(ids.capacity(), from, to);
+		int low = from;
+		int high = to;
+		while(low < high){
+			int middle = (low + high) >>> 1;
+			if(ids.get(middle) < key){
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	public static int upperBound(LongBuffer ids, int from, int to, long key){
+		checkRange(ids.capacity(), from, to);
+		int low = from;
+		int high = to;
+		while(low < high){
+			int middle = (low + high) >>> 1;
+			if(ids.get(middle) <= key){
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	public static int lowerBoundFromStart(LongBuffer ids, int from, int to, long key){
+		checkRange(ids.capacity(), from, to);
+		int bound = 1;
+		int previous = from;
+		while(previous + bound < to && ids.get(previous + bound - 1) < key){
+			previous += bound;
+			bound <<= 1;
+		}
+		return lowerBound(ids, previous, Math.min(previous + bound, to), key);
+	}
+
+	public static int lowerBoundFromEnd(LongBuffer ids, int from, int to, long key){
+		checkRange(ids.capacity(), from, to);
+		int bound = 1;
+		int next = to;
+		while(next - bound > from && ids.get(next - bound) >= key){
+			next -= bound;
+			bound <<= 1;
+		}
+		return lowerBound(ids, Math.max(next - bound, from), next, key);
+	}
+
+	public static int upperBoundFromEnd(LongBuffer ids, int from, int to, long key){
+		checkRange(ids.capacity(), from, to);
+		int bound = 1;
+		int next = to;
+		while(next - bound > from && ids.get(next - bound) > key){
+			next -= bound;
+			bound <<= 1;
+		}
+		return upperBound(ids, Math.max(next - bound, from), next, key);
+	}
+
+	private static void checkRange(int length, int from, int to){
+		if(from < 0 || to > length || from > to){
+			throw new IndexOutOfBoundsException("from " + from + ", to " + to + ", length " + length);
+		}
+	}
+
+}
@@ -1,87 +1,548 @@
 package com.mobinlife.jflake;
 
-import java.util.BitSet;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.mobinlife.jflake.metrics.JFlakeMetrics;
+import com.mobinlife.jflake.time.ClockRegressionGuard;
+import com.mobinlife.jflake.time.TimeSource;
 
 /**
- * JFlake is a generator of unique 64 bits IDs. 
- * It needs to be initialized with a 9 bits generator ID (0 <= generatorId <= 511) 
+ * JFlake is a generator of unique 64 bits IDs.
+ * It needs to be initialized with a 9 bits generator ID (0 <= generatorId <= 511), or with a generator ID fitting
+ * the IdLayout configured.
+ *
+ * The generator state is a single long holding the last ID issued: as the time component occupies the high bits
+ * and the sequence the low bits, the next ID of the same millisecond is simply the last one plus one.
+ * In the default mode the state is advanced under a lock, in lock-free mode with a compare-and-swap.
+ * In burst mode (a maximum burst drift above 0), a generator whose sequence is exhausted moves on to the next
+ * millisecond ahead of the clock, up to the maximum drift, and waits for the clock to catch up only beyond it.
+ * Neither mode uses monitors and waits park the thread (except with the SPIN exhaustion policy), so generators can
+ * be shared by virtual threads without pinning their carrier thread.
  * @author Christophe
  *
  */
 public class JFlake {
 
-	private final static int ID_SIZE = 64;
-	private final static long EPOCH_TRANSLATION = 1388534400000L; // 
-	private final static int MAX_SEQUENCE_VALUE = 0x1fff; // 8191 - 13 bits
-	private final static int MAX_GENERATORID_VALUE = 0x1ff; // 511 - 9 bits
-	private final static int TIME_BITS = 41;
-	private final static int GENERATOR_BITS = 9;
-	private final static int SEQUENCE_BITS = 13;
-
-	private final ThreadLocal<BitSet> threadLocalBitSet = new ThreadLocal<BitSet>() {
-		@Override
-		public BitSet initialValue() {
-			return new BitSet(ID_SIZE);
-		}
-	};
-
-	private final Object threadLock = new Object();
-	private volatile int sequenceNumber;
-	private volatile long timestamp;
+	private final ReentrantLock threadLock = new ReentrantLock();
+	private final AtomicLong lastId = new AtomicLong();
+	private final boolean lockFree;
+	private final SequenceExhaustionPolicy exhaustionPolicy;
+	private final long exhaustionTimeoutNanos;
+	private final long maxBurstDrift;
+	private final TimeSource timeSource;
+	private final JFlakeMetrics metrics;
 	private final int generatorId;
+	private final long generatorBits;
+
+	// copied from the IdLayout so that the hot path only reads final fields of this instance
+	private final IdLayout layout;
+	private final long epoch;
+	private final int sequenceBits;
+	private final int timestampShift;
+	private final long maxSequence;
+	private final long timestampGeneratorMask;
 
 	/**
-	 * 
-	 * @param generatorId Generator identifier - 24bits
+	 *
+	 * @param config JFlake configuration
 	 */
-	private JFlake(int generatorId){
-		this.generatorId = generatorId;
+	private JFlake(JFlakeConfiguration config){
+		this.layout = config.getLayout();
+		this.epoch = layout.getEpoch();
+		this.sequenceBits = layout.getSequenceBits();
+		this.timestampShift = layout.getTimestampShift();
+		this.maxSequence = layout.getMaxSequence();
+		this.timestampGeneratorMask = ~maxSequence;
+		this.maxBurstDrift = config.getMaxBurstDrift();
+
+		this.generatorId = config.getGeneratorId();
+		this.generatorBits = ((long) generatorId) << layout.getGeneratorShift();
+		this.lockFree = config.isLockFree();
+		this.exhaustionPolicy = config.getExhaustionPolicy();
+		this.exhaustionTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getExhaustionTimeout());
+		this.timeSource = config.getTimeSource();
+		this.metrics = config.getMetrics();
+		if(metrics != null && timeSource instanceof ClockRegressionGuard){
+			((ClockRegressionGuard) timeSource).addListener(metrics);
+		}
 	}
 
 	public static JFlake createJFlakeInstance(int generatorId) throws Exception{
-		if(generatorId > MAX_GENERATORID_VALUE) {
-			throw new Exception("Generator ID is 9 bits and cannot be more than " + MAX_GENERATORID_VALUE);
+		return createJFlakeInstance(new JFlakeConfiguration(generatorId));
+	}
+
+	public static JFlake createJFlakeInstance(JFlakeConfiguration config) throws Exception{
+		if(config == null){
+			throw new IllegalArgumentException("config cannot be null");
+		}
+		IdLayout layout = config.getLayout();
+		if(config.getGeneratorId() < 0 || config.getGeneratorId() > layout.getMaxGeneratorId()) {
+			throw new Exception("Generator ID is " + layout.getGeneratorBits() + " bits and must be between 0 and "
+					+ layout.getMaxGeneratorId());
+		}
+		long timestamp = config.getTimeSource().currentTimeMillis() - layout.getEpoch();
+		if(timestamp < 0 || timestamp > layout.getMaxTimestamp()){
+			throw new Exception("Current time cannot be represented on the " + layout.getTimeBits()
+					+ " time bits of " + layout);
 		}
-		return new JFlake(generatorId);
+		return new JFlake(config);
 	}
 
+	/**
+	 * Issues the next ID. When the sequence of the current millisecond is exhausted, the configured
+	 * SequenceExhaustionPolicy decides whether to wait for the next millisecond or to fail.
+	 * @return a unique ID
+	 * @throws SequenceExhaustedException if no ID is available and the policy does not allow waiting for one
+	 * @throws InterruptedException if the thread is interrupted while parked waiting for the next millisecond
+	 */
 	public long getId() throws Exception{
-		if(sequenceNumber == MAX_SEQUENCE_VALUE){
-			throw new Exception("No id available");
+		long deadline = 0;
+		boolean exhausted = false;
+		while(true){
+			long id;
+			if(lockFree){
+				id = nextIdLockFree();
+			} else {
+				id = nextIdLocked();
+			}
+			if(id != -1){
+				return id;
+			}
+			if(!exhausted){
+				// one exhaustion per call, however long it waits
+				exhausted = true;
+				if(metrics != null){
+					metrics.recordExhaustion();
+				}
+			}
+
+			switch(exhaustionPolicy){
+			case SPIN:
+				break;
+			case PARK:
+				parkUntilNextMillisecond(nanosUntilNextMillisecond());
+				break;
+			case BLOCK_WITH_TIMEOUT:
+				if(deadline == 0){
+					deadline = System.nanoTime() + exhaustionTimeoutNanos;
+				}
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0){
+					throw new SequenceExhaustedException("No id available within " + exhaustionTimeoutNanos + "ns");
+				}
+				parkUntilNextMillisecond(Math.min(remaining, nanosUntilNextMillisecond()));
+				break;
+			default:
+				throw new SequenceExhaustedException("No id available");
+			}
 		}
+	}
+
+	/**
+	 * Issues the next ID without ever blocking the caller: when the sequence of the current millisecond is
+	 * exhausted, the returned future is completed on the next millisecond by a shared background thread (or fails
+	 * right away with the FAIL_FAST policy, after the exhaustion timeout with BLOCK_WITH_TIMEOUT).
+	 * @return future completed with a unique ID, or with a SequenceExhaustedException
+	 */
+	public CompletableFuture<Long> nextIdAsync(){
+		CompletableFuture<Long> future = new CompletableFuture<Long>();
+		completeAsync(future, System.nanoTime() + exhaustionTimeoutNanos, false);
+		return future;
+	}
 
-		long now;
+	/**
+	 * @return true if all the sequence numbers of the current millisecond, and of the milliseconds ahead allowed in
+	 * burst mode, have been issued
+	 */
+	public boolean isExhausted(){
+		long last = lastId.get();
+		return (last & maxSequence) == maxSequence
+				&& (last >>> timestampShift) >= timeSource.currentTimeMillis() - epoch + maxBurstDrift;
+	}
 
-		synchronized(threadLock) {
-			// Translation with a new origin gives us more room in the future
-			now = System.currentTimeMillis()-EPOCH_TRANSLATION;
-			if(now != timestamp) {
-				timestamp = now;
-				sequenceNumber = 0;
-			} else {
-				sequenceNumber++;
+	/**
+	 * Reserves n consecutive IDs and returns them in a new array
+	 * @param n number of IDs
+	 * @return the IDs, in increasing order, fewer than n if the exhaustion policy stopped the reservation
+	 * @see #fill(long[], int, int)
+	 */
+	public long[] getIds(int n){
+		if(n < 0){
+			throw new IllegalArgumentException("n cannot be negative");
+		}
+		long[] ids = new long[n];
+		int filled = fill(ids, 0, n);
+		return filled == n ? ids : Arrays.copyOf(ids, filled);
+	}
+
+	public int fill(long[] dst){
+		return fill(dst, 0, dst.length);
+	}
+
+	/**
+	 * Reserves contiguous runs of sequence numbers, each in a single lock acquisition (or compare-and-swap), and
+	 * writes the corresponding IDs in increasing order into dst.
+	 * A run spills over the following milliseconds when the current one does not have enough sequence numbers left,
+	 * but never more than the maximum burst drift ahead of the clock (the current millisecond only by default).
+	 * Beyond it the exhaustion policy applies: the reservation waits for the clock to move on, or stops there with
+	 * FAIL_FAST, with BLOCK_WITH_TIMEOUT once the timeout is over and when the thread is interrupted.
+	 * @param dst destination array
+	 * @param offset first index written
+	 * @param length number of IDs
+	 * @return number of IDs written, less than length only if the reservation was stopped
+	 */
+	public int fill(long[] dst, int offset, int length){
+		if(offset < 0 || length < 0 || offset + length > dst.length || offset + length < 0){
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + dst.length);
+		}
+		int filled = 0;
+		long deadline = 0;
+		while(filled < length){
+			long now = timeSource.currentTimeMillis();
+			int count = length - filled;
+			long position = reserve(count, now);
+			if(position == -1){
+				if(deadline == 0){
+					// one exhaustion per call, however long it waits
+					deadline = System.nanoTime() + exhaustionTimeoutNanos;
+					if(metrics != null){
+						metrics.recordExhaustion();
+					}
+				}
+				if(!awaitBatchProgress(deadline)){
+					break;
+				}
+				continue;
+			}
+			count = reservedCount(position, count, now);
+			for(int i = offset + filled; i < offset + filled + count; i++){
+				dst[i] = toId(position++);
+			}
+			filled += count;
+		}
+		return filled;
+	}
+
+	/**
+	 * Fills the remaining space of dst with IDs, see fill(long[], int, int)
+	 * @param dst destination buffer, its position is advanced past the IDs written
+	 * @return number of IDs written, less than the space remaining only if the reservation was stopped
+	 * @see #fill(long[], int, int)
+	 */
+	public int fill(LongBuffer dst){
+		int length = dst.remaining();
+		int filled = 0;
+		long deadline = 0;
+		while(filled < length){
+			long now = timeSource.currentTimeMillis();
+			int count = length - filled;
+			long position = reserve(count, now);
+			if(position == -1){
+				if(deadline == 0){
+					// one exhaustion per call, however long it waits
+					deadline = System.nanoTime() + exhaustionTimeoutNanos;
+					if(metrics != null){
+						metrics.recordExhaustion();
+					}
+				}
+				if(!awaitBatchProgress(deadline)){
+					break;
+				}
+				continue;
+			}
+			count = reservedCount(position, count, now);
+			for(int i = 0; i < count; i++){
+				dst.put(toId(position++));
+			}
+			filled += count;
+		}
+		return filled;
+	}
+
+	public int getGeneratorId() {
+		return generatorId;
+	}
+
+	public TimeSource getTimeSource() {
+		return timeSource;
+	}
+
+	public IdLayout getLayout() {
+		return layout;
+	}
+
+	/**
+	 *
+	 * @return decoder of the IDs issued by this generator
+	 */
+	public IdDecoder getDecoder() {
+		return layout.equals(IdLayout.DEFAULT) ? IdDecoder.DEFAULT : new IdDecoder(layout);
+	}
+
+	public boolean isLockFree() {
+		return lockFree;
+	}
+
+	private long nextIdLocked(){
+		long now = timeSource.currentTimeMillis();
+		long last;
+		long next;
+		threadLock.lock();
+		try {
+			last = lastId.get();
+			next = nextId(last, now);
+			if(next == -1){
+				return -1;
+			}
+			lastId.set(next);
+		} finally {
+			threadLock.unlock();
+		}
+		if(metrics != null){
+			recordIssued(last, next, 1);
+		}
+		return next;
+	}
+
+	private long nextIdLockFree(){
+		while(true){
+			long last = lastId.get();
+			long next = nextId(last, timeSource.currentTimeMillis());
+			if(next == -1){
+				return -1;
 			}
+			if(lastId.compareAndSet(last, next)){
+				if(metrics != null){
+					recordIssued(last, next, 1);
+				}
+				return next;
+			}
+		}
+	}
 
-			BitSet bitSet = threadLocalBitSet.get();
-			int currentIndex =  ID_SIZE-2;
+	/**
+	 * Updates the metrics after count IDs were issued from first on
+	 * @param last last ID issued before
+	 */
+	private void recordIssued(long last, long first, int count){
+		metrics.recordIds(count);
+		if(last != 0 && (first & timestampGeneratorMask) != (last & timestampGeneratorMask)){
+			// the millisecond of the last ID is over
+			metrics.recordSequenceHighWater(last & maxSequence);
+		}
+	}
 
-			for(int i = TIME_BITS-1; i >= 0 ; i--){
-				bitSet.set(currentIndex--, (((now >> i)&1)==1));
+	private void completeAsync(final CompletableFuture<Long> future, final long deadline, boolean exhausted){
+		long id;
+		try {
+			if(lockFree){
+				id = nextIdLockFree();
+			} else {
+				id = nextIdLocked();
 			}
-			for(int i = GENERATOR_BITS-1; i >= 0 ; i--){
-				bitSet.set(currentIndex--, (((generatorId >> i)&1)==1));
+		} catch (RuntimeException e){
+			future.completeExceptionally(e);
+			return;
+		}
+		if(id != -1){
+			future.complete(id);
+			return;
+		}
+		if(metrics != null && !exhausted){
+			metrics.recordExhaustion();
+		}
+
+		if(exhaustionPolicy == SequenceExhaustionPolicy.FAIL_FAST){
+			future.completeExceptionally(new SequenceExhaustedException("No id available"));
+		} else if(exhaustionPolicy == SequenceExhaustionPolicy.BLOCK_WITH_TIMEOUT && deadline - System.nanoTime() <= 0){
+			future.completeExceptionally(new SequenceExhaustedException("No id available within "
+					+ exhaustionTimeoutNanos + "ns"));
+		} else {
+			AsyncScheduler.INSTANCE.schedule(new Runnable() {
+				public void run() {
+					completeAsync(future, deadline, true);
+				}
+			}, Math.max(0, nanosUntilNextMillisecond()), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 *
+	 * @return time left until the clock moves past the timestamp of the last ID issued (minus the maximum burst
+	 * drift), in ns
+	 */
+	private long nanosUntilNextMillisecond(){
+		long exhaustedTimestamp = (lastId.get() >>> timestampShift) + epoch;
+		return TimeUnit.MILLISECONDS.toNanos(exhaustedTimestamp + 1 - maxBurstDrift - timeSource.currentTimeMillis());
+	}
+
+	private void parkUntilNextMillisecond(long waitNanos) throws InterruptedException{
+		if(waitNanos > 0){
+			long start = System.nanoTime();
+			LockSupport.parkNanos(waitNanos);
+			if(metrics != null){
+				metrics.recordWait(System.nanoTime() - start);
 			}
-			for(int i = SEQUENCE_BITS-1; i >= 0 ; i--){
-				bitSet.set(currentIndex--, (((sequenceNumber >> i)&1)==1));
+		}
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+	}
+
+	/**
+	 * Applies the exhaustion policy to a batch reservation stuck at the maximum burst drift
+	 * @param deadline end of the BLOCK_WITH_TIMEOUT wait, in System.nanoTime() time
+	 * @return true to try again, false to stop the reservation
+	 */
+	private boolean awaitBatchProgress(long deadline){
+		try {
+			switch(exhaustionPolicy){
+			case SPIN:
+				return true;
+			case PARK:
+				parkUntilNextMillisecond(nanosUntilNextMillisecond());
+				return true;
+			case BLOCK_WITH_TIMEOUT:
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0){
+					return false;
+				}
+				parkUntilNextMillisecond(Math.min(remaining, nanosUntilNextMillisecond()));
+				return true;
+			default:
+				return false;
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
 
-			long value = 0L;
-			for (int i = 0; i < ID_SIZE; ++i) {
-				value += bitSet.get(i) ? (1L << i) : 0;
+	/**
+	 * Reserves up to count consecutive sequence positions, no further than the maximum burst drift ahead of now
+	 * @return the first position reserved, -1 if none is available; reservedCount() gives the number reserved
+	 */
+	private long reserve(int count, long now){
+		long limit = lastPosition(now);
+		if(lockFree){
+			while(true){
+				long last = lastId.get();
+				long first = firstPosition(last, now);
+				if(first > limit){
+					return -1;
+				}
+				int reserved = (int) Math.min(count, limit - first + 1);
+				if(lastId.compareAndSet(last, toId(first + reserved - 1))){
+					if(metrics != null){
+						recordIssued(last, toId(first), reserved);
+					}
+					return first;
+				}
+			}
+		} else {
+			long last;
+			long first;
+			int reserved;
+			threadLock.lock();
+			try {
+				last = lastId.get();
+				first = firstPosition(last, now);
+				if(first > limit){
+					return -1;
+				}
+				reserved = (int) Math.min(count, limit - first + 1);
+				lastId.set(toId(first + reserved - 1));
+			} finally {
+				threadLock.unlock();
 			}
+			if(metrics != null){
+				recordIssued(last, toId(first), reserved);
+			}
+			return first;
+		}
+	}
+
+	/**
+	 *
+	 * @return number of positions reserve(count, now) reserved from first on
+	 */
+	private int reservedCount(long first, int count, long now){
+		return (int) Math.min(count, lastPosition(now) - first + 1);
+	}
+
+	private long firstPosition(long last, long now){
+		return Math.max((now - epoch) << sequenceBits, toPosition(last) + 1);
+	}
+
+	/**
+	 *
+	 * @return last position that may be issued at time now, at the maximum burst drift
+	 */
+	private long lastPosition(long now){
+		return ((now - epoch + maxBurstDrift + 1) << sequenceBits) - 1;
+	}
+
+	/**
+	 * A position is the timestamp and the sequence packed together, without the generator bits in between:
+	 * consecutive positions map to consecutive IDs, rolling over to the next millisecond after the last sequence.
+	 */
+	private long toPosition(long id){
+		return ((id >>> timestampShift) << sequenceBits) | (id & maxSequence);
+	}
+
+	private long toId(long position){
+		return ((position >>> sequenceBits) << timestampShift) | generatorBits | (position & maxSequence);
+	}
 
-			return value;
+	/**
+	 * Computes the ID following the last one issued
+	 * @param last last ID issued
+	 * @param now current time in ms
+	 * @return the next ID, or -1 if the sequence of the current millisecond is exhausted
+	 */
+	private long nextId(long last, long now){
+		// Translation with a new origin gives us more room in the future
+		long base = ((now - epoch) << timestampShift) | generatorBits;
+		long lastBase = last & timestampGeneratorMask;
+		if(base > lastBase){
+			// new millisecond, sequence starts over
+			return base;
+		}
+		// same millisecond, ahead of the clock after a burst, or clock went backward:
+		// keep counting from the last timestamp issued
+		if((last & maxSequence) != maxSequence){
+			return last + 1;
 		}
+		// burst mode: borrow the next millisecond if it is not too far ahead of the clock
+		long next = lastBase + (1L << timestampShift);
+		if(((next - base) >>> timestampShift) <= maxBurstDrift){
+			return next;
+		}
+		return -1;
+	}
+
+	/**
+	 * Daemon thread completing the asynchronous requests waiting for the next millisecond, shared by all generators
+	 */
+	private static class AsyncScheduler {
+
+		static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "jflake-async");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
 	}
 
 }
@@ -0,0 +1,174 @@
+package com.mobinlife.jflake;
+
+import com.mobinlife.jflake.metrics.JFlakeMetrics;
+import com.mobinlife.jflake.time.SystemTimeSource;
+import com.mobinlife.jflake.time.TimeSource;
+
+/**
+ * Configuration of a JFlake instance.
+ * Only the generator ID is mandatory, every other setting has a default matching the historical JFlake behaviour.
+ * Setters return the configuration itself so calls can be chained:
+ * <pre>
+ * JFlake jflake = JFlake.createJFlakeInstance(new JFlakeConfiguration(generatorId).withLockFree(true));
+ * </pre>
+ */
+public class JFlakeConfiguration {
+
+	private int generatorId;
+	private boolean lockFree = false;
+	private SequenceExhaustionPolicy exhaustionPolicy = SequenceExhaustionPolicy.FAIL_FAST;
+	private long exhaustionTimeout = 10; // 10 ms
+	private long maxBurstDrift = 0; // no burst mode
+	private TimeSource timeSource = SystemTimeSource.INSTANCE;
+	private IdLayout layout = IdLayout.DEFAULT;
+	private JFlakeMetrics metrics = null;
+
+	/**
+	 *
+	 * @param generatorId Generator identifier
+	 */
+	public JFlakeConfiguration(int generatorId){
+		this.generatorId = generatorId;
+	}
+
+	/**
+	 * Copy of template for another generator ID
+	 * @param generatorId Generator identifier
+	 * @param template configuration of every other setting
+	 */
+	public JFlakeConfiguration(int generatorId, JFlakeConfiguration template){
+		if(template == null){
+			throw new IllegalArgumentException("template cannot be null");
+		}
+		this.generatorId = generatorId;
+		this.lockFree = template.lockFree;
+		this.exhaustionPolicy = template.exhaustionPolicy;
+		this.exhaustionTimeout = template.exhaustionTimeout;
+		this.maxBurstDrift = template.maxBurstDrift;
+		this.timeSource = template.timeSource;
+		this.layout = template.layout;
+		this.metrics = template.metrics;
+	}
+
+	/**
+	 * Lock-free mode: the generator state is advanced with a compare-and-swap instead of a monitor.
+	 * Recommended when many threads share the same instance.
+	 * @param lockFree
+	 * @return this configuration
+	 */
+	public JFlakeConfiguration withLockFree(boolean lockFree){
+		this.lockFree = lockFree;
+		return this;
+	}
+
+	/**
+	 * Behaviour of getId() when the sequence of the current millisecond is exhausted
+	 * @param exhaustionPolicy
+	 * @return this configuration
+	 */
+	public JFlakeConfiguration withExhaustionPolicy(SequenceExhaustionPolicy exhaustionPolicy){
+		if(exhaustionPolicy == null){
+			throw new IllegalArgumentException("exhaustionPolicy cannot be null");
+		}
+		this.exhaustionPolicy = exhaustionPolicy;
+		return this;
+	}
+
+	/**
+	 * Maximum time getId() waits for an ID with the BLOCK_WITH_TIMEOUT policy
+	 * @param exhaustionTimeout timeout in ms
+	 * @return this configuration
+	 */
+	public JFlakeConfiguration withExhaustionTimeout(long exhaustionTimeout){
+		if(exhaustionTimeout < 0){
+			throw new IllegalArgumentException("exhaustionTimeout cannot be negative");
+		}
+		this.exhaustionTimeout = exhaustionTimeout;
+		return this;
+	}
+
+	/**
+	 * Burst mode: when the sequence of the current millisecond is exhausted, IDs are issued with the timestamps of
+	 * the following milliseconds, up to maxBurstDrift ms ahead of the clock, before the exhaustion policy applies.
+	 * IDs stay unique and increasing, their timestamps are at most maxBurstDrift ms ahead. A generator restarted
+	 * with the same generator ID must not issue IDs within maxBurstDrift ms of the previous one stopping.
+	 * @param maxBurstDrift maximum drift ahead of the clock in ms, 0 (the default) to disable burst mode
+	 * @return this configuration
+	 */
+	public JFlakeConfiguration withMaxBurstDrift(long maxBurstDrift){
+		if(maxBurstDrift < 0){
+			throw new IllegalArgumentException("maxBurstDrift cannot be negative");
+		}
+		this.maxBurstDrift = maxBurstDrift;
+		return this;
+	}
+
+	/**
+	 * Source of the time component of the IDs, the wall clock by default
+	 * @param timeSource
+	 * @return this configuration
+	 */
+	public JFlakeConfiguration withTimeSource(TimeSource timeSource){
+		if(timeSource == null){
+			throw new IllegalArgumentException("timeSource cannot be null");
+		}
+		this.timeSource = timeSource;
+		return this;
+	}
+
+	/**
+	 * Bit layout of the IDs, 41 time bits / 9 generator bits / 13 sequence bits by default
+	 * @param layout
+	 * @return this configuration
+	 */
+	public JFlakeConfiguration withLayout(IdLayout layout){
+		if(layout == null){
+			throw new IllegalArgumentException("layout cannot be null");
+		}
+		this.layout = layout;
+		return this;
+	}
+
+	/**
+	 * Metrics updated by the generator, none by default
+	 * @param metrics
+	 * @return this configuration
+	 */
+	public JFlakeConfiguration withMetrics(JFlakeMetrics metrics){
+		this.metrics = metrics;
+		return this;
+	}
+
+	public int getGeneratorId() {
+		return generatorId;
+	}
+
+	public boolean isLockFree() {
+		return lockFree;
+	}
+
+	public SequenceExhaustionPolicy getExhaustionPolicy() {
+		return exhaustionPolicy;
+	}
+
+	public long getExhaustionTimeout() {
+		return exhaustionTimeout;
+	}
+
+	public long getMaxBurstDrift() {
+		return maxBurstDrift;
+	}
+
+	public TimeSource getTimeSource() {
+		return timeSource;
+	}
+
+	public IdLayout getLayout() {
+		return layout;
+	}
+
+	public JFlakeMetrics getMetrics() {
+		return metrics;
+	}
+
+}
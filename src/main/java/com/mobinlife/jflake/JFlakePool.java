@@ -0,0 +1,242 @@
+package com.mobinlife.jflake;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.mobinlife.jflake.generatorid.AbstractGeneratorIDProvider;
+import com.mobinlife.jflake.generatorid.LeaseRenewalScheduler;
+
+/**
+ * Pool of independent JFlake generators, one per generator ID leased, to go past the throughput of a single
+ * generator (2^sequenceBits IDs per ms, one contended state).
+ * Each provider leases one generator ID. Callers are routed to a generator by thread, so that a thread always uses
+ * the same generator and generators are shared by as few threads as possible. With the FAIL_FAST exhaustion
+ * policy, a caller whose generator is exhausted for the current millisecond is served by the next generator instead.
+ *
+ * The pool renews all the leases together from the shared LeaseRenewalScheduler, and drops the generator of any
+ * lease which could not be renewed before it expires: from then on its generator ID may be leased by another process.
+ * Callers check the lease expiration before using a generator, so an expired lease is never used even when the
+ * renewal is late, e.g. with the scheduler thread stalled.
+ *
+ */
+public class JFlakePool {
+
+	private final LeaseRenewalScheduler.Renewal renewal;
+	private final List<AbstractGeneratorIDProvider> providers;
+	private volatile Engine[] engines;
+
+	private JFlakePool(List<AbstractGeneratorIDProvider> providers, Engine[] engines, int renewalFrequency){
+		this.providers = providers;
+		this.engines = engines;
+		this.renewal = LeaseRenewalScheduler.getDefault().schedule(new LeaseRenewalScheduler.RenewalTask() {
+			public boolean renew() {
+				return renewLeases();
+			}
+
+			public long getLeaseExpiration() {
+				long expiration = Long.MAX_VALUE;
+				for(Engine engine : JFlakePool.this.engines){
+					expiration = Math.min(expiration, engine.provider.getLeaseExpiration());
+				}
+				return expiration;
+			}
+		}, TimeUnit.SECONDS.toMillis(renewalFrequency));
+	}
+
+	/**
+	 * Leases a generator ID with each provider and creates their generators.
+	 * Providers unable to lease a generator ID are left out of the pool. If the pool cannot be created, the
+	 * providers which leased a generator ID are closed, releasing their leases.
+	 * @param providers one provider per generator ID to lease, with no generator ID leased yet
+	 * @param template configuration of the generators, except for the generator ID
+	 * @return the pool
+	 * @throws IllegalArgumentException if a provider leases generator IDs beyond the layout of template
+	 * @throws Exception if no generator ID could be leased, or a generator could not be created
+	 */
+	public static JFlakePool create(List<? extends AbstractGeneratorIDProvider> providers, JFlakeConfiguration template)
+			throws Exception{
+		if(providers == null || providers.isEmpty()){
+			throw new IllegalArgumentException("providers cannot be empty");
+		}
+		if(template == null){
+			throw new IllegalArgumentException("template cannot be null");
+		}
+		int maxGeneratorId = template.getLayout().getMaxGeneratorId();
+		for(AbstractGeneratorIDProvider provider : providers){
+			if(provider.getMaxGeneratorId() > maxGeneratorId){
+				throw new IllegalArgumentException("A provider leases generator IDs up to " + provider.getMaxGeneratorId()
+						+ ", the layout of template only has up to " + maxGeneratorId);
+			}
+		}
+		List<Engine> leased = new ArrayList<Engine>();
+		List<AbstractGeneratorIDProvider> leasing = new ArrayList<AbstractGeneratorIDProvider>();
+		Set<Integer> generatorIds = new HashSet<Integer>();
+		int renewalFrequency = Integer.MAX_VALUE;
+		try {
+			for(AbstractGeneratorIDProvider provider : providers){
+				provider.setAutomaticRenewal(false);
+				int generatorId = provider.getId();
+				if(generatorId == -1){
+					continue;
+				}
+				leasing.add(provider);
+				if(!generatorIds.add(generatorId)){
+					throw new IllegalArgumentException("Generator ID " + generatorId + " is leased by two providers");
+				}
+				JFlake jflake = JFlake.createJFlakeInstance(new JFlakeConfiguration(generatorId, template));
+				leased.add(new Engine(provider, jflake));
+				renewalFrequency = Math.min(renewalFrequency, provider.getLeaseRenewalFrequency());
+			}
+		} catch (Exception e) {
+			// not renewed by any pool: released now rather than held until they expire
+			for(AbstractGeneratorIDProvider provider : leasing){
+				provider.close();
+			}
+			throw e;
+		}
+		if(leased.isEmpty()){
+			throw new Exception("No generator ID could be leased");
+		}
+		return new JFlakePool(new ArrayList<AbstractGeneratorIDProvider>(providers)
+				, leased.toArray(new Engine[leased.size()]), renewalFrequency);
+	}
+
+	/**
+	 * Issues the next ID from the generator of the calling thread
+	 * @return a unique ID
+	 * @throws SequenceExhaustedException if no generator has an ID available and the policy does not allow waiting
+	 * @throws IllegalStateException if every lease was lost
+	 */
+	public long getId() throws Exception{
+		Engine[] current = engines;
+		int count = current.length;
+		int home = count == 0 ? 0 : indexOf(Thread.currentThread(), count);
+		long now = System.currentTimeMillis();
+		SequenceExhaustedException exhausted = null;
+		for(int i = 0; i < count; i++){
+			Engine engine = current[(home + i) % count];
+			if(!engine.isLeaseValid(now)){
+				continue;
+			}
+			try {
+				return engine.jflake.getId();
+			} catch (SequenceExhaustedException e) {
+				// try the next generator
+				if(exhausted == null){
+					exhausted = e;
+				}
+			}
+		}
+		if(exhausted != null){
+			throw exhausted;
+		}
+		throw new IllegalStateException("No generator ID lease is held");
+	}
+
+	/**
+	 * Fills dst with IDs from the generator of the calling thread, see JFlake.fill()
+	 * @param dst
+	 * @return number of IDs written, less than dst.length only if the exhaustion policy stopped the reservation
+	 */
+	public int fill(long[] dst) throws Exception{
+		Engine[] current = engines;
+		int count = current.length;
+		int home = count == 0 ? 0 : indexOf(Thread.currentThread(), count);
+		long now = System.currentTimeMillis();
+		for(int i = 0; i < count; i++){
+			Engine engine = current[(home + i) % count];
+			if(engine.isLeaseValid(now)){
+				return engine.jflake.fill(dst);
+			}
+		}
+		throw new IllegalStateException("No generator ID lease is held");
+	}
+
+	/**
+	 *
+	 * @return number of generators in use, one per lease held
+	 */
+	public int size(){
+		return engines.length;
+	}
+
+	/**
+	 *
+	 * @return generator IDs of the generators in use
+	 */
+	public int[] getGeneratorIds(){
+		Engine[] current = engines;
+		int[] generatorIds = new int[current.length];
+		for(int i = 0; i < current.length; i++){
+			generatorIds[i] = current[i].jflake.getGeneratorId();
+		}
+		return generatorIds;
+	}
+
+	/**
+	 * Stops renewing the leases. The pool keeps issuing IDs until the leases expire, when its generators are dropped.
+	 */
+	public void stop(){
+		renewal.cancel();
+	}
+
+	/**
+	 * Stops the generators and closes the providers, releasing the leases
+	 */
+	public void close(){
+		renewal.cancel();
+		engines = new Engine[0];
+		for(AbstractGeneratorIDProvider provider : providers){
+			provider.close();
+		}
+	}
+
+	/**
+	 *
+	 * @return true if every lease was renewed
+	 */
+	private boolean renewLeases(){
+		Engine[] current = engines;
+		List<Engine> kept = new ArrayList<Engine>(current.length);
+		boolean renewed = true;
+		for(Engine engine : current){
+			renewed &= engine.provider.renew();
+			// a lease expiring before the earliest next renewal attempt is already lost for this pool
+			if(engine.provider.getLeaseExpiration()
+					> System.currentTimeMillis() + LeaseRenewalScheduler.MIN_DELAY_MILLIS){
+				kept.add(engine);
+			}
+		}
+		if(kept.size() != current.length){
+			engines = kept.toArray(new Engine[kept.size()]);
+		}
+		return renewed;
+	}
+
+	private static int indexOf(Thread thread, int count){
+		// thread IDs are sequential, spread them before reducing them to an index
+		long hash = thread.getId() * 0x9E3779B97F4A7C15L;
+		return (int) ((hash >>> 33) % count);
+	}
+
+	private static final class Engine {
+		private final AbstractGeneratorIDProvider provider;
+		private final JFlake jflake;
+
+		private Engine(AbstractGeneratorIDProvider provider, JFlake jflake){
+			this.provider = provider;
+			this.jflake = jflake;
+		}
+
+		/**
+		 * An expired lease may already be held by another process, whether or not the pool dropped it yet
+		 */
+		private boolean isLeaseValid(long now){
+			return now < provider.getLeaseExpiration();
+		}
+	}
+
+}
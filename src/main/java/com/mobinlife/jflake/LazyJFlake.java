@@ -0,0 +1,101 @@
+package com.mobinlife.jflake;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import com.mobinlife.jflake.generatorid.AsyncGeneratorIDProvider;
+
+/**
+ * JFlake generator created as soon as its generator ID is leased in the background, so that it can be set up at
+ * startup without waiting for the lease. IDs requested before the lease is available wait for it at most
+ * maxWaitMillis. If the background lease failed, requesting an ID starts it again, within the retry delay of the
+ * provider.
+ *
+ */
+public class LazyJFlake {
+
+	private final AsyncGeneratorIDProvider provider;
+	private final JFlakeConfiguration template;
+	private final long maxWaitMillis;
+	private final ReentrantLock creationLock = new ReentrantLock();
+	private volatile JFlake jflake = null;
+
+	/**
+	 *
+	 * @param provider provider leasing the generator ID in the background
+	 * @param template configuration of the generator, except for the generator ID
+	 * @param maxWaitMillis maximum wait for the lease when an ID is requested before it is available, in ms
+	 */
+	public LazyJFlake(AsyncGeneratorIDProvider provider, JFlakeConfiguration template, long maxWaitMillis){
+		if(provider == null){
+			throw new IllegalArgumentException("provider cannot be null");
+		}
+		if(template == null){
+			throw new IllegalArgumentException("template cannot be null");
+		}
+		if(maxWaitMillis < 0){
+			throw new IllegalArgumentException("maxWaitMillis cannot be negative");
+		}
+		this.provider = provider;
+		this.template = template;
+		this.maxWaitMillis = maxWaitMillis;
+		provider.getIdFuture().thenAccept(new Consumer<Integer>() {
+			public void accept(Integer generatorId) {
+				if(generatorId != -1){
+					try {
+						create(generatorId);
+					} catch (Exception e) {
+						// reported to the first caller of getJFlake()
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Issues the next ID, see JFlake.getId()
+	 * @return a unique ID
+	 * @throws Exception if no generator ID was leased within maxWaitMillis, or see JFlake.getId()
+	 */
+	public long getId() throws Exception{
+		return getJFlake().getId();
+	}
+
+	/**
+	 *
+	 * @return the generator, once its generator ID is leased
+	 * @throws Exception if no generator ID was leased within maxWaitMillis
+	 */
+	public JFlake getJFlake() throws Exception{
+		JFlake created = jflake;
+		if(created != null){
+			return created;
+		}
+		int generatorId = provider.getId(maxWaitMillis);
+		if(generatorId == -1){
+			throw new Exception("No generator ID leased within " + maxWaitMillis + "ms");
+		}
+		return create(generatorId);
+	}
+
+	/**
+	 *
+	 * @return true once the generator is created
+	 */
+	public boolean isReady(){
+		return jflake != null;
+	}
+
+	private JFlake create(int generatorId) throws Exception{
+		creationLock.lock();
+		try {
+			if(jflake == null){
+				jflake = JFlake.createJFlakeInstance(new JFlakeConfiguration(generatorId, template));
+			}
+			return jflake;
+		} finally {
+			creationLock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,309 @@
+package com.mobinlife.jflake;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Set of longs stored off-heap, without boxing, to check the uniqueness of billions of IDs or to deduplicate a
+ * stream of IDs. Open addressing with linear probing in direct ByteBuffers, split into segments each guarded by
+ * its own lock so threads can insert concurrently. The memory is allocated upfront from the expected count and
+ * adding more than about 1.5 times that count throws an IllegalStateException.
+ * <p>
+ * With a time window, the IDs are bucketed into generations by their timestamp and IDs older than the window
+ * are evicted a generation at a time: the set then only holds the IDs of the last windowMillis ms (and up to a
+ * quarter of that more), as seen by the newest ID added. Older IDs can no longer be checked, add() returns false
+ * for them and counts them in getExpiredCount().
+ *
+ */
+public final class OffHeapLongSet {
+
+	// one generation is a quarter of the window, one more is kept for the generation being filled
+	private static final int GENERATIONS = 4;
+	private static final int MIN_SEGMENTS = 16;
+	private static final int MIN_REGION_SLOTS = 16;
+	private static final int MAX_REGION_SLOTS = 1 << 24; // 128 MB
+
+	private final Segment[] segments;
+	private final int segmentShift;
+	private final int timestampShift;
+	private final long generationMillis;
+	// generation of the newest ID added to any segment, the window ends there for every segment
+	private final AtomicLong newestGeneration = new AtomicLong();
+
+	/**
+	 * Set without eviction
+	 * @param expectedCount number of IDs the set is sized for
+	 */
+	public OffHeapLongSet(long expectedCount){
+		this(expectedCount, 1, 0, 0);
+	}
+
+	/**
+	 * Set keeping the IDs of a time window
+	 * @param expectedCount number of IDs expected within windowMillis, the set is sized for
+	 * @param layout layout of the IDs, to extract their timestamp
+	 * @param windowMillis time window in ms
+	 */
+	public OffHeapLongSet(long expectedCount, IdLayout layout, long windowMillis){
+		// validated before the buffers are allocated
+		this(expectedCount / GENERATIONS + 1, GENERATIONS + 1, timestampShiftOf(layout), generationMillisOf(windowMillis));
+	}
+
+	private OffHeapLongSet(long expectedPerRegion, int regions, int timestampShift, long generationMillis){
+		if(expectedPerRegion <= 0){
+			throw new IllegalArgumentException("expectedCount must be positive");
+		}
+		// load factor of at most 0.5 at the expected count
+		long slots = 2 * expectedPerRegion;
+		int segmentCount = MIN_SEGMENTS;
+		while((long) segmentCount * MAX_REGION_SLOTS < slots){
+			segmentCount <<= 1;
+		}
+		int regionSlots = MIN_REGION_SLOTS;
+		while((long) regionSlots * segmentCount < slots){
+			regionSlots <<= 1;
+		}
+		this.segments = new Segment[segmentCount];
+		for(int i = 0; i < segmentCount; i++){
+			segments[i] = new Segment(regions, regionSlots);
+		}
+		this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+		this.timestampShift = timestampShift;
+		this.generationMillis = generationMillis;
+	}
+
+	private static int timestampShiftOf(IdLayout layout){
+		if(layout == null){
+			throw new IllegalArgumentException("layout cannot be null");
+		}
+		return layout.getTimestampShift();
+	}
+
+	private static long generationMillisOf(long windowMillis){
+		if(windowMillis <= 0){
+			throw new IllegalArgumentException("windowMillis must be positive");
+		}
+		return (windowMillis + GENERATIONS - 1) / GENERATIONS;
+	}
+
+	/**
+	 *
+	 * @param id
+	 * @return true if id was added, false if it was already in the set or is older than the time window
+	 * @throws IllegalStateException if the set is full
+	 */
+	public boolean add(long id){
+		long hash = hash(id);
+		long generation = generationOf(id);
+		long newest = newestGeneration.get();
+		while(generation > newest){
+			if(newestGeneration.compareAndSet(newest, generation)){
+				newest = generation;
+			} else {
+				newest = newestGeneration.get();
+			}
+		}
+		Segment segment = segments[(int) (hash >>> segmentShift)];
+		synchronized(segment){
+			return segment.add(id, hash, generation, newest);
+		}
+	}
+
+	/**
+	 *
+	 * @param id
+	 * @return true if id is in the set, false if it is not or is older than the time window
+	 */
+	public boolean contains(long id){
+		long hash = hash(id);
+		Segment segment = segments[(int) (hash >>> segmentShift)];
+		synchronized(segment){
+			return segment.contains(id, hash, generationOf(id), newestGeneration.get());
+		}
+	}
+
+	/**
+	 *
+	 * @return number of IDs in the set
+	 */
+	public long size(){
+		long size = 0;
+		long newest = newestGeneration.get();
+		for(Segment segment : segments){
+			synchronized(segment){
+				size += segment.size(newest);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 *
+	 * @return number of IDs add() refused because they were older than the time window
+	 */
+	public long getExpiredCount(){
+		long count = 0;
+		for(Segment segment : segments){
+			synchronized(segment){
+				count += segment.expiredCount;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 *
+	 * @return off-heap memory allocated, in bytes
+	 */
+	public long getMemoryUsage(){
+		return (long) segments.length * segments[0].table.capacity();
+	}
+
+	/**
+	 * Removes every ID
+	 */
+	public void clear(){
+		for(Segment segment : segments){
+			synchronized(segment){
+				segment.clear();
+			}
+		}
+		newestGeneration.set(0);
+	}
+
+	private long generationOf(long id){
+		return generationMillis == 0 ? 0 : (id >>> timestampShift) / generationMillis;
+	}
+
+	// murmur3 finalizer: segment from the high bits, slot from the low bits
+	private static long hash(long id){
+		id ^= id >>> 33;
+		id *= 0xff51afd7ed558ccdL;
+		id ^= id >>> 33;
+		id *= 0xc4ceb9fe1a85ec53L;
+		id ^= id >>> 33;
+		return id;
+	}
+
+	/**
+	 * Part of the set, one open addressing table per generation in a single buffer.
+	 * 0 marks empty slots, a flag per region records whether 0 itself was added.
+	 */
+	private static final class Segment {
+
+		private final ByteBuffer table;
+		private final int regionSlots;
+		private final int maxRegionSize;
+		private final long[] regionGenerations;
+		private final int[] regionSizes;
+		private final boolean[] regionZeros;
+		private long expiredCount = 0;
+
+		Segment(int regions, int regionSlots){
+			this.table = ByteBuffer.allocateDirect(regions * regionSlots * 8);
+			this.regionSlots = regionSlots;
+			this.maxRegionSize = regionSlots - (regionSlots >>> 2);
+			this.regionGenerations = new long[regions];
+			this.regionSizes = new int[regions];
+			this.regionZeros = new boolean[regions];
+		}
+
+		boolean add(long id, long hash, long generation, long newestGeneration){
+			int regions = regionGenerations.length;
+			int region = (int) (generation % regions);
+			// a newer generation in the region means the window moved on since newestGeneration was read
+			if(generation < newestGeneration - (regions - 1) || regionGenerations[region] > generation){
+				expiredCount++;
+				return false;
+			}
+			if(regionGenerations[region] != generation){
+				// the region holds a generation now out of the window
+				clearRegion(region);
+				regionGenerations[region] = generation;
+			}
+			if(id == 0){
+				if(regionZeros[region]){
+					return false;
+				}
+				regionZeros[region] = true;
+				regionSizes[region]++;
+				return true;
+			}
+			int base = region * regionSlots;
+			int mask = regionSlots - 1;
+			int slot = (int) hash & mask;
+			while(true){
+				int index = (base + slot) << 3;
+				long value = table.getLong(index);
+				if(value == 0){
+					if(regionSizes[region] >= maxRegionSize){
+						throw new IllegalStateException("OffHeapLongSet is full, expectedCount is too low");
+					}
+					table.putLong(index, id);
+					regionSizes[region]++;
+					return true;
+				}
+				if(value == id){
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		boolean contains(long id, long hash, long generation, long newestGeneration){
+			int regions = regionGenerations.length;
+			int region = (int) (generation % regions);
+			if(regionGenerations[region] != generation || generation < newestGeneration - (regions - 1)){
+				return false;
+			}
+			if(id == 0){
+				return regionZeros[region];
+			}
+			int base = region * regionSlots;
+			int mask = regionSlots - 1;
+			int slot = (int) hash & mask;
+			while(true){
+				long value = table.getLong((base + slot) << 3);
+				if(value == 0){
+					return false;
+				}
+				if(value == id){
+					return true;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		long size(long newestGeneration){
+			long size = 0;
+			for(int region = 0; region < regionSizes.length; region++){
+				if(regionGenerations[region] >= newestGeneration - (regionSizes.length - 1)){
+					size += regionSizes[region];
+				}
+			}
+			return size;
+		}
+
+		void clear(){
+			for(int region = 0; region < regionSizes.length; region++){
+				clearRegion(region);
+				regionGenerations[region] = 0;
+			}
+			expiredCount = 0;
+		}
+
+		private void clearRegion(int region){
+			if(regionSizes[region] == 0 && !regionZeros[region]){
+				return;
+			}
+			int end = (region + 1) * regionSlots << 3;
+			for(int index = region * regionSlots << 3; index < end; index += 8){
+				table.putLong(index, 0);
+			}
+			regionSizes[region] = 0;
+			regionZeros[region] = false;
+		}
+
+	}
+
+}
@@ -0,0 +1,16 @@
+package com.mobinlife.jflake;
+
+/**
+ * Thrown by JFlake when no ID is available in the current millisecond and the exhaustion policy does not allow
+ * (or no longer allows) waiting for the next one
+ *
+ */
+public class SequenceExhaustedException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public SequenceExhaustedException(String message){
+		super(message);
+	}
+
+}
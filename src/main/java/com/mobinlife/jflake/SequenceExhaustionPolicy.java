@@ -0,0 +1,30 @@
+package com.mobinlife.jflake;
+
+/**
+ * What JFlake.getId() does when all the sequence numbers of the current millisecond have been issued
+ *
+ */
+public enum SequenceExhaustionPolicy {
+
+	/**
+	 * Throw a SequenceExhaustedException immediately (historical behaviour)
+	 */
+	FAIL_FAST,
+
+	/**
+	 * Busy-wait for the next millisecond. Lowest latency, but burns the CPU while waiting
+	 */
+	SPIN,
+
+	/**
+	 * Park the calling thread until the next millisecond
+	 */
+	PARK,
+
+	/**
+	 * Park the calling thread until the next millisecond, but fail with a SequenceExhaustedException if no ID
+	 * could be issued within the configured exhaustion timeout
+	 */
+	BLOCK_WITH_TIMEOUT
+
+}
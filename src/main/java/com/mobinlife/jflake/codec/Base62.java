@@ -0,0 +1,216 @@
+package com.mobinlife.jflake.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed width Base62 encoding of IDs: 11 characters from 0-9 A-Z a-z, shorter than Crockford Base32 but case
+ * sensitive. The alphabet is in ASCII order and every ID has the same length, so strings sort like the IDs they
+ * encode (as unsigned 64 bits values, which is the numeric order for IDs).
+ * Encoders write into caller-provided buffers and do not allocate.
+ *
+ */
+public final class Base62 {
+
+	/**
+	 * Length of an encoded ID
+	 */
+	public static final int LENGTH = 11;
+
+	private static final char[] ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+	private static final byte[] ALPHABET_BYTES = new byte[62];
+	// largest value the 10 first characters can hold without the last one overflowing 64 bits
+	private static final long MAX_PREFIX = Long.divideUnsigned(-1L, 62);
+	private static final byte[] VALUES = new byte[128];
+
+	static {
+		for(int i = 0; i < VALUES.length; i++){
+			VALUES[i] = -1;
+		}
+		for(int i = 0; i < ALPHABET.length; i++){
+			ALPHABET_BYTES[i] = (byte) ALPHABET[i];
+			VALUES[ALPHABET[i]] = (byte) i;
+		}
+	}
+
+	private Base62(){
+	}
+
+	public static String encode(long id){
+		char[] chars = new char[LENGTH];
+		encode(id, chars, 0);
+		return new String(chars);
+	}
+
+	/**
+	 * Writes the LENGTH characters of id at dst[offset..offset+LENGTH)
+	 */
+	public static void encode(long id, char[] dst, int offset){
+		checkRange(dst.length, offset, LENGTH);
+		// unsigned division for the last digit, the quotient is then positive
+		long quotient = (id >>> 1) / 31;
+		dst[offset + LENGTH - 1] = ALPHABET[(int) (id - quotient * 62)];
+		for(int i = LENGTH - 2; i >= 0; i--){
+			long next = quotient / 62;
+			dst[offset + i] = ALPHABET[(int) (quotient - next * 62)];
+			quotient = next;
+		}
+	}
+
+	/**
+	 * Writes the LENGTH ASCII characters of id at dst[offset..offset+LENGTH)
+	 */
+	public static void encode(long id, byte[] dst, int offset){
+		checkRange(dst.length, offset, LENGTH);
+		long quotient = (id >>> 1) / 31;
+		dst[offset + LENGTH - 1] = ALPHABET_BYTES[(int) (id - quotient * 62)];
+		for(int i = LENGTH - 2; i >= 0; i--){
+			long next = quotient / 62;
+			dst[offset + i] = ALPHABET_BYTES[(int) (quotient - next * 62)];
+			quotient = next;
+		}
+	}
+
+	/**
+	 * Writes the LENGTH ASCII characters of id at the position of dst, and advances it
+	 */
+	public static void encode(long id, ByteBuffer dst){
+		int position = dst.position();
+		checkRange(dst.limit(), position, LENGTH);
+		long quotient = (id >>> 1) / 31;
+		dst.put(position + LENGTH - 1, ALPHABET_BYTES[(int) (id - quotient * 62)]);
+		for(int i = LENGTH - 2; i >= 0; i--){
+			long next = quotient / 62;
+			dst.put(position + i, ALPHABET_BYTES[(int) (quotient - next * 62)]);
+			quotient = next;
+		}
+		dst.position(position + LENGTH);
+	}
+
+	/**
+	 * Encodes ids[offset..offset+length) one after the other from dst[dstOffset]
+	 */
+	public static void encode(long[] ids, int offset, int length, char[] dst, int dstOffset){
+		checkRange(ids.length, offset, length);
+		checkRange(dst.length, dstOffset, length * LENGTH);
+		for(int i = 0; i < length; i++){
+			encode(ids[offset + i], dst, dstOffset + i * LENGTH);
+		}
+	}
+
+	/**
+	 * Encodes ids[offset..offset+length) one after the other from dst[dstOffset]
+	 */
+	public static void encode(long[] ids, int offset, int length, byte[] dst, int dstOffset){
+		checkRange(ids.length, offset, length);
+		checkRange(dst.length, dstOffset, length * LENGTH);
+		for(int i = 0; i < length; i++){
+			encode(ids[offset + i], dst, dstOffset + i * LENGTH);
+		}
+	}
+
+	/**
+	 * Encodes ids[offset..offset+length) one after the other at the position of dst, and advances it
+	 */
+	public static void encode(long[] ids, int offset, int length, ByteBuffer dst){
+		checkRange(ids.length, offset, length);
+		checkRange(dst.limit(), dst.position(), length * LENGTH);
+		for(int i = 0; i < length; i++){
+			encode(ids[offset + i], dst);
+		}
+	}
+
+	public static long decode(CharSequence src){
+		if(src.length() != LENGTH){
+			throw new IllegalArgumentException("Encoded IDs are " + LENGTH + " characters long");
+		}
+		long id = 0;
+		for(int i = 0; i < LENGTH; i++){
+			id = accumulate(id, valueOf(src.charAt(i), i), i);
+		}
+		return id;
+	}
+
+	/**
+	 * Decodes the ID encoded at src[offset..offset+LENGTH)
+	 */
+	public static long decode(char[] src, int offset){
+		checkRange(src.length, offset, LENGTH);
+		long id = 0;
+		for(int i = 0; i < LENGTH; i++){
+			id = accumulate(id, valueOf(src[offset + i], i), i);
+		}
+		return id;
+	}
+
+	/**
+	 * Decodes the ID encoded at src[offset..offset+LENGTH)
+	 */
+	public static long decode(byte[] src, int offset){
+		checkRange(src.length, offset, LENGTH);
+		long id = 0;
+		for(int i = 0; i < LENGTH; i++){
+			id = accumulate(id, valueOf((char) (src[offset + i] & 0xff), i), i);
+		}
+		return id;
+	}
+
+	/**
+	 * Decodes the ID encoded at the position of src, and advances it
+	 */
+	public static long decode(ByteBuffer src){
+		int position = src.position();
+		checkRange(src.limit(), position, LENGTH);
+		long id = 0;
+		for(int i = 0; i < LENGTH; i++){
+			id = accumulate(id, valueOf((char) (src.get(position + i) & 0xff), i), i);
+		}
+		src.position(position + LENGTH);
+		return id;
+	}
+
+	/**
+	 * Decodes length IDs encoded one after the other from src[offset] into dst[dstOffset..dstOffset+length)
+	 */
+	public static void decode(char[] src, int offset, long[] dst, int dstOffset, int length){
+		checkRange(dst.length, dstOffset, length);
+		checkRange(src.length, offset, length * LENGTH);
+		for(int i = 0; i < length; i++){
+			dst[dstOffset + i] = decode(src, offset + i * LENGTH);
+		}
+	}
+
+	/**
+	 * Decodes length IDs encoded one after the other from src[offset] into dst[dstOffset..dstOffset+length)
+	 */
+	public static void decode(byte[] src, int offset, long[] dst, int dstOffset, int length){
+		checkRange(dst.length, dstOffset, length);
+		checkRange(src.length, offset, length * LENGTH);
+		for(int i = 0; i < length; i++){
+			dst[dstOffset + i] = decode(src, offset + i * LENGTH);
+		}
+	}
+
+	private static long valueOf(char c, int index){
+		int value = c < 128 ? VALUES[c] : -1;
+		if(value < 0){
+			throw new IllegalArgumentException("Invalid character '" + c + "' at index " + index);
+		}
+		return value;
+	}
+
+	private static long accumulate(long id, long value, int index){
+		// 62^10 fits in 63 bits: only the last digit can overflow
+		if(index == LENGTH - 1 && (Long.compareUnsigned(id, MAX_PREFIX) > 0
+				|| (id == MAX_PREFIX && Long.compareUnsigned(value, -1L - MAX_PREFIX * 62) > 0))){
+			throw new IllegalArgumentException("Encoded value does not fit in 64 bits");
+		}
+		return id * 62 + value;
+	}
+
+	private static void checkRange(int capacity, int offset, int length){
+		if(offset < 0 || length < 0 || offset + length > capacity || offset + length < 0){
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", capacity " + capacity);
+		}
+	}
+
+}
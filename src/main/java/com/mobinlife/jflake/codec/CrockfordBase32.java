@@ -0,0 +1,197 @@
+package com.mobinlife.jflake.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed width Crockford Base32 encoding of IDs: 13 characters from 0-9 A-Z without I, L, O and U.
+ * The alphabet is in ASCII order and every ID has the same length, so strings sort like the IDs they encode
+ * (as unsigned 64 bits values, which is the numeric order for IDs). Decoding is case-insensitive and reads I and L
+ * as 1, O as 0.
+ * Encoders write into caller-provided buffers and do not allocate.
+ *
+ */
+public final class CrockfordBase32 {
+
+	/**
+	 * Length of an encoded ID
+	 */
+	public static final int LENGTH = 13;
+
+	private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+	private static final byte[] ALPHABET_BYTES = new byte[32];
+	private static final byte[] VALUES = new byte[128];
+
+	static {
+		for(int i = 0; i < VALUES.length; i++){
+			VALUES[i] = -1;
+		}
+		for(int i = 0; i < ALPHABET.length; i++){
+			ALPHABET_BYTES[i] = (byte) ALPHABET[i];
+			VALUES[ALPHABET[i]] = (byte) i;
+			VALUES[Character.toLowerCase(ALPHABET[i])] = (byte) i;
+		}
+		VALUES['O'] = VALUES['o'] = 0;
+		VALUES['I'] = VALUES['i'] = VALUES['L'] = VALUES['l'] = 1;
+	}
+
+	private CrockfordBase32(){
+	}
+
+	public static String encode(long id){
+		char[] chars = new char[LENGTH];
+		encode(id, chars, 0);
+		return new String(chars);
+	}
+
+	/**
+	 * Writes the LENGTH characters of id at dst[offset..offset+LENGTH)
+	 */
+	public static void encode(long id, char[] dst, int offset){
+		checkRange(dst.length, offset, LENGTH);
+		for(int i = 0; i < LENGTH; i++){
+			dst[offset + i] = ALPHABET[(int) (id >>> (60 - 5 * i)) & 31];
+		}
+	}
+
+	/**
+	 * Writes the LENGTH ASCII characters of id at dst[offset..offset+LENGTH)
+	 */
+	public static void encode(long id, byte[] dst, int offset){
+		checkRange(dst.length, offset, LENGTH);
+		for(int i = 0; i < LENGTH; i++){
+			dst[offset + i] = ALPHABET_BYTES[(int) (id >>> (60 - 5 * i)) & 31];
+		}
+	}
+
+	/**
+	 * Writes the LENGTH ASCII characters of id at the position of dst, and advances it
+	 */
+	public static void encode(long id, ByteBuffer dst){
+		int position = dst.position();
+		checkRange(dst.limit(), position, LENGTH);
+		for(int i = 0; i < LENGTH; i++){
+			dst.put(position + i, ALPHABET_BYTES[(int) (id >>> (60 - 5 * i)) & 31]);
+		}
+		dst.position(position + LENGTH);
+	}
+
+	/**
+	 * Encodes ids[offset..offset+length) one after the other from dst[dstOffset]
+	 */
+	public static void encode(long[] ids, int offset, int length, char[] dst, int dstOffset){
+		checkRange(ids.length, offset, length);
+		checkRange(dst.length, dstOffset, length * LENGTH);
+		for(int i = 0; i < length; i++){
+			encode(ids[offset + i], dst, dstOffset + i * LENGTH);
+		}
+	}
+
+	/**
+	 * Encodes ids[offset..offset+length) one after the other from dst[dstOffset]
+	 */
+	public static void encode(long[] ids, int offset, int length, byte[] dst, int dstOffset){
+		checkRange(ids.length, offset, length);
+		checkRange(dst.length, dstOffset, length * LENGTH);
+		for(int i = 0; i < length; i++){
+			encode(ids[offset + i], dst, dstOffset + i * LENGTH);
+		}
+	}
+
+	/**
+	 * Encodes ids[offset..offset+length) one after the other at the position of dst, and advances it
+	 */
+	public static void encode(long[] ids, int offset, int length, ByteBuffer dst){
+		checkRange(ids.length, offset, length);
+		checkRange(dst.limit(), dst.position(), length * LENGTH);
+		for(int i = 0; i < length; i++){
+			encode(ids[offset + i], dst);
+		}
+	}
+
+	public static long decode(CharSequence src){
+		if(src.length() != LENGTH){
+			throw new IllegalArgumentException("Encoded IDs are " + LENGTH + " characters long");
+		}
+		long id = 0;
+		for(int i = 0; i < LENGTH; i++){
+			id = (id << 5) | valueOf(src.charAt(i), i);
+		}
+		return id;
+	}
+
+	/**
+	 * Decodes the ID encoded at src[offset..offset+LENGTH)
+	 */
+	public static long decode(char[] src, int offset){
+		checkRange(src.length, offset, LENGTH);
+		long id = 0;
+		for(int i = 0; i < LENGTH; i++){
+			id = (id << 5) | valueOf(src[offset + i], i);
+		}
+		return id;
+	}
+
+	/**
+	 * Decodes the ID encoded at src[offset..offset+LENGTH)
+	 */
+	public static long decode(byte[] src, int offset){
+		checkRange(src.length, offset, LENGTH);
+		long id = 0;
+		for(int i = 0; i < LENGTH; i++){
+			id = (id << 5) | valueOf((char) (src[offset + i] & 0xff), i);
+		}
+		return id;
+	}
+
+	/**
+	 * Decodes the ID encoded at the position of src, and advances it
+	 */
+	public static long decode(ByteBuffer src){
+		int position = src.position();
+		checkRange(src.limit(), position, LENGTH);
+		long id = 0;
+		for(int i = 0; i < LENGTH; i++){
+			id = (id << 5) | valueOf((char) (src.get(position + i) & 0xff), i);
+		}
+		src.position(position + LENGTH);
+		return id;
+	}
+
+	/**
+	 * Decodes length IDs encoded one after the other from src[offset] into dst[dstOffset..dstOffset+length)
+	 */
+	public static void decode(char[] src, int offset, long[] dst, int dstOffset, int length){
+		checkRange(dst.length, dstOffset, length);
+		checkRange(src.length, offset, length * LENGTH);
+		for(int i = 0; i < length; i++){
+			dst[dstOffset + i] = decode(src, offset + i * LENGTH);
+		}
+	}
+
+	/**
+	 * Decodes length IDs encoded one after the other from src[offset] into dst[dstOffset..dstOffset+length)
+	 */
+	public static void decode(byte[] src, int offset, long[] dst, int dstOffset, int length){
+		checkRange(dst.length, dstOffset, length);
+		checkRange(src.length, offset, length * LENGTH);
+		for(int i = 0; i < length; i++){
+			dst[dstOffset + i] = decode(src, offset + i * LENGTH);
+		}
+	}
+
+	private static long valueOf(char c, int index){
+		int value = c < 128 ? VALUES[c] : -1;
+		// the first character only holds the 4 high bits
+		if(value < 0 || (index == 0 && value > 15)){
+			throw new IllegalArgumentException("Invalid character '" + c + "' at index " + index);
+		}
+		return value;
+	}
+
+	private static void checkRange(int capacity, int offset, int length){
+		if(offset < 0 || length < 0 || offset + length > capacity || offset + length < 0){
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", capacity " + capacity);
+		}
+	}
+
+}
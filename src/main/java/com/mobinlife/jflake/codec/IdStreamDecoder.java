@@ -0,0 +1,137 @@
+package com.mobinlife.jflake.codec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import com.mobinlife.jflake.IdLayout;
+
+/**
+ * Decoder of the streams written by IdStreamEncoder, with the same layout. Decoding is incremental: a buffer
+ * ending in the middle of an ID is left positioned at the start of that ID, to be decoded once more bytes arrive.
+ *
+ */
+public class IdStreamDecoder {
+
+	private final int sequenceBits;
+	private long previousKey = 0;
+	private long previousSequence = 0;
+	// varint read by the last call to readVarint()
+	private long varint;
+
+	/**
+	 *
+	 * @param layout layout of the IDs encoded
+	 */
+	public IdStreamDecoder(IdLayout layout){
+		if(layout == null){
+			throw new IllegalArgumentException("layout cannot be null");
+		}
+		this.sequenceBits = layout.getSequenceBits();
+	}
+
+	/**
+	 * Reads the ID at the position of src and advances it
+	 * @param src
+	 * @return the ID
+	 * @throws BufferUnderflowException if src ends before the end of the ID, src is then unchanged
+	 */
+	public long decode(ByteBuffer src){
+		int position = src.position();
+		int next = decodeAt(src, position, src.limit());
+		if(next < 0){
+			throw new BufferUnderflowException();
+		}
+		src.position(next);
+		return (previousKey << sequenceBits) | previousSequence;
+	}
+
+	/**
+	 * Decodes IDs from the position of src into dst[offset..offset+length), until dst is full or src has no
+	 * complete ID left
+	 * @return number of IDs decoded
+	 */
+	public int decode(ByteBuffer src, long[] dst, int offset, int length){
+		if(offset < 0 || length < 0 || offset + length > dst.length || offset + length < 0){
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + dst.length);
+		}
+		int position = src.position();
+		int limit = src.limit();
+		int decoded = 0;
+		while(decoded < length){
+			int next = decodeAt(src, position, limit);
+			if(next < 0){
+				break;
+			}
+			position = next;
+			dst[offset + decoded++] = (previousKey << sequenceBits) | previousSequence;
+		}
+		src.position(position);
+		return decoded;
+	}
+
+	/**
+	 * Starts a new stream, as the encoder did when it was reset
+	 */
+	public void reset(){
+		previousKey = 0;
+		previousSequence = 0;
+	}
+
+	/**
+	 * Decodes the ID at position, updating the previous ID only if it is complete
+	 * @return the position following the ID, -1 if it is incomplete
+	 */
+	private int decodeAt(ByteBuffer src, int position, int limit){
+		if(position >= limit){
+			return -1;
+		}
+		// first byte: continuation bit, 6 bits of delta, flag
+		byte first = src.get(position++);
+		long delta = (first >>> 1) & 0x3F;
+		if(first < 0){
+			position = readVarint(src, position, limit);
+			if(position < 0){
+				return -1;
+			}
+			delta |= varint << 6;
+		}
+		if((first & 1) == 0){
+			previousSequence += unZigZag(delta);
+			return position;
+		}
+		position = readVarint(src, position, limit);
+		if(position < 0){
+			return -1;
+		}
+		previousKey += unZigZag(delta);
+		previousSequence = varint;
+		return position;
+	}
+
+	/**
+	 * Reads a varint into the varint field
+	 * @return the position following it, -1 if it is incomplete
+	 */
+	private int readVarint(ByteBuffer src, int position, int limit){
+		long value = 0;
+		int shift = 0;
+		while(position < limit){
+			byte b = src.get(position++);
+			value |= (long) (b & 0x7F) << shift;
+			if(b >= 0){
+				varint = value;
+				return position;
+			}
+			shift += 7;
+			if(shift > 63){
+				throw new IllegalArgumentException("Malformed varint at " + (position - 1));
+			}
+		}
+		return -1;
+	}
+
+	private static long unZigZag(long value){
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+}
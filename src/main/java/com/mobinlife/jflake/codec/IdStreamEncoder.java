@@ -0,0 +1,136 @@
+package com.mobinlife.jflake.codec;
+
+import java.nio.ByteBuffer;
+
+import com.mobinlife.jflake.IdLayout;
+
+/**
+ * Compact encoding of sorted or nearly sorted streams of IDs, such as the IDs of a generator in issue order.
+ * Each ID is encoded relatively to the previous one, with its time and generator part separated from its sequence:
+ * <ul>
+ * <li>same millisecond and generator: one varint, the zig-zag encoded sequence delta shifted left, low bit 0.
+ * One byte for consecutive IDs.</li>
+ * <li>otherwise: one varint, the zig-zag encoded delta of the time and generator part shifted left, low bit 1,
+ * followed by the sequence as a varint. Typically two or three bytes.</li>
+ * </ul>
+ * Varints are little endian groups of 7 bits, the high bit of each byte flagging a following byte. The first varint
+ * of an ID holds up to 65 bits, so that no delta loses its high bit to the flag: any long can be encoded, unordered or foreign IDs simply take more bytes. The encoder keeps the previous ID: a stream must be
+ * decoded from its start, or from a point where both the encoder and the decoder were reset.
+ *
+ */
+public class IdStreamEncoder {
+
+	/**
+	 * Largest size of an encoded ID, in bytes
+	 */
+	public static final int MAX_ENCODED_LENGTH = 20;
+
+	private final int sequenceBits;
+	private final long sequenceMask;
+	private long previousKey = 0;
+	private long previousSequence = 0;
+
+	/**
+	 *
+	 * @param layout layout of the IDs encoded
+	 */
+	public IdStreamEncoder(IdLayout layout){
+		if(layout == null){
+			throw new IllegalArgumentException("layout cannot be null");
+		}
+		this.sequenceBits = layout.getSequenceBits();
+		this.sequenceMask = layout.getMaxSequence();
+	}
+
+	/**
+	 * Writes id at the position of dst and advances it
+	 * @param id
+	 * @param dst
+	 * @return false, with neither dst nor the encoder modified, if dst does not have enough room left
+	 */
+	public boolean encode(long id, ByteBuffer dst){
+		long key = id >>> sequenceBits;
+		long sequence = id & sequenceMask;
+		int position = dst.position();
+		int limit = dst.limit();
+		if(key == previousKey){
+			long delta = zigZag(sequence - previousSequence);
+			int length = headLength(delta);
+			if(limit - position < length){
+				return false;
+			}
+			position = putHead(dst, position, delta, 0);
+		} else {
+			long delta = zigZag(key - previousKey);
+			int length = headLength(delta) + varintLength(sequence);
+			if(limit - position < length){
+				return false;
+			}
+			position = putHead(dst, position, delta, 1);
+			position = putVarint(dst, position, sequence);
+			previousKey = key;
+		}
+		previousSequence = sequence;
+		dst.position(position);
+		return true;
+	}
+
+	/**
+	 * Encodes ids[offset..offset+length) in order, as long as dst has room left
+	 * @return number of IDs encoded
+	 */
+	public int encode(long[] ids, int offset, int length, ByteBuffer dst){
+		if(offset < 0 || length < 0 || offset + length > ids.length || offset + length < 0){
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + ids.length);
+		}
+		for(int i = 0; i < length; i++){
+			if(!encode(ids[offset + i], dst)){
+				return i;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Starts a new stream: the next ID is encoded independently from the previous ones
+	 */
+	public void reset(){
+		previousKey = 0;
+		previousSequence = 0;
+	}
+
+	static long zigZag(long value){
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static int varintLength(long value){
+		return (63 - Long.numberOfLeadingZeros(value | 1)) / 7 + 1;
+	}
+
+	// the varint of (delta << 1) | flag, without losing the high bit of delta: 6 bits of delta in the first byte
+	static int headLength(long delta){
+		long rest = delta >>> 6;
+		return rest == 0 ? 1 : 1 + varintLength(rest);
+	}
+
+	private static int putHead(ByteBuffer dst, int position, long delta, int flag){
+		int first = (int) ((delta & 0x3F) << 1) | flag;
+		long rest = delta >>> 6;
+		if(rest == 0){
+			dst.put(position++, (byte) first);
+			return position;
+		}
+		dst.put(position++, (byte) (first | 0x80));
+		return putVarint(dst, position, rest);
+	}
+
+	private static int putVarint(ByteBuffer dst, int position, long value){
+		while((value & ~0x7FL) != 0){
+			dst.put(position++, (byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		dst.put(position++, (byte) value);
+		return position;
+	}
+
+}
@@ -0,0 +1,417 @@
+package com.mobinlife.jflake.generatorid;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.mobinlife.jflake.generatorid.configuration.GeneratorIDConfiguration;
+import com.mobinlife.jflake.metrics.LeaseMetrics;
+
+/**
+ * Common part of the lease based providers: keeps the generator ID leased, measures lease acquisitions and
+ * regularly renews the lease once acquired, from the LeaseRenewalScheduler shared by all the providers.
+ * With a lease cache file configured, the lease is remembered locally and, after a restart, reclaimed before
+ * leasing a new generator ID; a datastore error while reclaiming fails the attempt and keeps the cache.
+ * Closing the provider stops the renewals and releases the lease, by setting it as expired: any process can then
+ * lease the generator ID at once, and this process reclaim it after a restart.
+ * A renewal proving that another process took the lease over drops it: getId() then leases a new generator ID.
+ * A renewal which could not reach the datastore is retried instead.
+ * Implementations only deal with the datastore.
+ * <p>
+ * A key or table of the datastore holds either generator IDs or the block indexes of GeneratorIDBlocks, never both:
+ * within a JVM, a provider refuses to lease from one already used for the other kind of lease.
+ *
+ */
+public abstract class AbstractGeneratorIDProvider implements GeneratorIDProvider {
+
+	protected final int leaseExpirationTime;
+	protected final int maxLeaseRetries;
+	protected final int leaseRenewalFrequency;
+	protected final LeaseMetrics leaseMetrics = new LeaseMetrics();
+	// datastore keys or tables leased from in this JVM, mapped to true when they hold block indexes
+	private static final Map<String, Boolean> LEASE_STORES = new HashMap<String, Boolean>();
+	// not a monitor: leasing involves network calls, which must not pin the carrier of a virtual thread
+	private final ReentrantLock leaseLock = new ReentrantLock();
+
+	protected volatile Integer generatorID = null;
+	// lease expiration as written in the datastore by the implementation, conditional writes expect it
+	protected volatile long leaseExpirationWritten;
+	private final LeaseCacheFile leaseCache;
+	// local estimate of the lease expiration, from the time the lease was last written
+	private volatile long leaseExpiration = 0;
+	private volatile boolean automaticRenewal = true;
+	private volatile boolean leasingBlocks = false;
+	private LeaseRenewalScheduler.Renewal renewalTask = null;
+	private boolean closed = false; // under the lease lock
+	private Thread shutdownHook = null;
+
+	protected AbstractGeneratorIDProvider(GeneratorIDConfiguration config){
+		if(config == null){
+			throw new IllegalArgumentException("config cannot be null");
+		}
+		this.leaseExpirationTime = config.getLeaseExpirationTime();
+		this.maxLeaseRetries = config.getMaxLeaseRetries();
+		this.leaseRenewalFrequency = config.getLeaseRenewalFrequency();
+		if(config.getLeaseCacheFile() != null){
+			try {
+				this.leaseCache = new LeaseCacheFile(new File(config.getLeaseCacheFile()));
+			} catch (IOException e) {
+				throw new IllegalArgumentException("leaseCacheFile " + config.getLeaseCacheFile() + " cannot be opened", e);
+			}
+		} else {
+			this.leaseCache = null;
+		}
+	}
+
+	public int getId() {
+		Integer leased = generatorID;
+		if(leased != null){
+			return leased;
+		}
+
+		leaseLock.lock();
+		try {
+			if(generatorID != null){
+				return generatorID;
+			}
+			if(closed){
+				return -1;
+			}
+			long start = System.nanoTime();
+			int leasedId = -1;
+			String conflict = claimLeaseStore();
+			if(conflict == null){
+				try {
+					leasedId = reclaimCachedLease();
+					if(leasedId == -1){
+						leasedId = leaseNewId();
+					}
+				} catch (Exception e) {
+					// the cached lease may still be ours: kept for the next attempt rather than leasing another ID
+					leaseMetrics.recordAcquisitionError(e);
+				}
+			} else {
+				leaseMetrics.recordAcquisitionError(new IllegalStateException(conflict));
+			}
+			leaseMetrics.recordAcquisition(leasedId != -1, System.nanoTime() - start);
+			if(leasedId != -1){
+				leaseExpiration = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+						+ leaseExpirationTime;
+				generatorID = leasedId;
+				cacheLease();
+				if(automaticRenewal){
+					scheduleLeaseRenewal();
+				}
+			}
+			return leasedId;
+		} finally {
+			leaseLock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * @return highest generator ID leased, -1 if the implementation does not tell
+	 */
+	public int getMaxGeneratorId(){
+		return -1;
+	}
+
+	/**
+	 *
+	 * @return name of the datastore key or table the leases are written in, null if the implementation does not tell
+	 */
+	protected String getLeaseStore(){
+		return null;
+	}
+
+	/**
+	 * Makes this provider lease the block indexes of a GeneratorIDBlock
+	 * @throws IllegalArgumentException if it already leased a generator ID, or its key or table holds generator IDs
+	 */
+	void leaseBlockIndexes(){
+		leaseLock.lock();
+		try {
+			if(generatorID != null){
+				throw new IllegalArgumentException("blockProvider already leased generator ID " + generatorID);
+			}
+			leasingBlocks = true;
+			String conflict = claimLeaseStore();
+			if(conflict != null){
+				throw new IllegalArgumentException(conflict);
+			}
+		} finally {
+			leaseLock.unlock();
+		}
+	}
+
+	// generator IDs and block indexes in the same key or table would overlap
+	private String claimLeaseStore(){
+		String store = getLeaseStore();
+		if(store == null){
+			return null;
+		}
+		synchronized (LEASE_STORES) {
+			Boolean blocks = LEASE_STORES.get(store);
+			if(blocks == null){
+				LEASE_STORES.put(store, leasingBlocks);
+				return null;
+			}
+			if(blocks == leasingBlocks){
+				return null;
+			}
+		}
+		return store + " already holds " + (leasingBlocks ? "generator IDs" : "block indexes")
+				+ " leased in this JVM, block indexes need a key or table of their own";
+	}
+
+	/**
+	 * Extends the lease now, and records the outcome in the lease metrics
+	 * @return true if the lease was renewed
+	 */
+	public boolean renew(){
+		Integer leased = generatorID;
+		if(leased == null){
+			return false;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			renewLease();
+			leaseExpiration = start + leaseExpirationTime;
+			leaseMetrics.recordRenewal();
+			cacheLease();
+			return true;
+		} catch (LeaseTakenOverException e) {
+			leaseMetrics.recordRenewalFailure(e);
+			dropLease(leased);
+			return false;
+		} catch (Exception e) {
+			leaseMetrics.recordRenewalFailure(e);
+			return false;
+		}
+	}
+
+	/**
+	 * Forgets a lease another process took over, so that its generator ID is not used anymore
+	 */
+	private void dropLease(Integer lost){
+		leaseLock.lock();
+		try {
+			if(!lost.equals(generatorID)){
+				return;
+			}
+			leaseExpiration = 0;
+			generatorID = null;
+			if(renewalTask != null){
+				renewalTask.cancel();
+				renewalTask = null;
+			}
+			if(leaseCache != null){
+				leaseCache.clear();
+			}
+		} finally {
+			leaseLock.unlock();
+		}
+	}
+
+	/**
+	 * Stops renewing the lease and releases it. Once closed, the provider does not lease anymore.
+	 */
+	public void close(){
+		leaseLock.lock();
+		try {
+			if(closed){
+				return;
+			}
+			closed = true;
+			if(renewalTask != null){
+				renewalTask.cancel();
+				renewalTask = null;
+			}
+			Integer leased = generatorID;
+			if(leased != null){
+				// expired, so that any process can lease it, and this one reclaim it from its cache after a restart
+				long expiredTime = System.currentTimeMillis() - 1;
+				try {
+					if(releaseLease(leased, leaseExpirationWritten, expiredTime)){
+						leaseExpirationWritten = expiredTime;
+						cacheLease();
+					}
+				} catch (Exception e) {
+					// the lease will expire
+				}
+				leaseExpiration = 0;
+				generatorID = null;
+			}
+			if(leaseCache != null){
+				leaseCache.close();
+			}
+			if(shutdownHook != null && Thread.currentThread() != shutdownHook){
+				try {
+					Runtime.getRuntime().removeShutdownHook(shutdownHook);
+				} catch (IllegalStateException e) {
+					// already shutting down
+				}
+			}
+		} finally {
+			leaseLock.unlock();
+		}
+	}
+
+	/**
+	 * Closes this provider when the JVM shuts down, releasing its lease
+	 */
+	public void closeOnShutdown(){
+		leaseLock.lock();
+		try {
+			if(shutdownHook == null && !closed){
+				shutdownHook = new Thread(new Runnable() {
+					public void run() {
+						close();
+					}
+				}, "jflake-lease-release");
+				Runtime.getRuntime().addShutdownHook(shutdownHook);
+			}
+		} finally {
+			leaseLock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * @return true if a generator ID is leased and its lease has not expired
+	 */
+	public boolean isLeaseValid(){
+		return generatorID != null && System.currentTimeMillis() < leaseExpiration;
+	}
+
+	/**
+	 *
+	 * @return time the lease expires at in ms since 1970-01-01 00:00 GMT, as estimated locally
+	 */
+	public long getLeaseExpiration(){
+		return leaseExpiration;
+	}
+
+	/**
+	 * Renewal of the lease by this provider at leaseRenewalFrequency, on by default.
+	 * Turned off when the lease is renewed by its owner instead, e.g. a JFlakePool renewing all its leases together.
+	 * @param automaticRenewal
+	 */
+	public void setAutomaticRenewal(boolean automaticRenewal){
+		leaseLock.lock();
+		try {
+			this.automaticRenewal = automaticRenewal;
+			if(!automaticRenewal && renewalTask != null){
+				renewalTask.cancel();
+				renewalTask = null;
+			} else if(automaticRenewal && renewalTask == null && generatorID != null){
+				scheduleLeaseRenewal();
+			}
+		} finally {
+			leaseLock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * @return lease renewal frequency in seconds
+	 */
+	public int getLeaseRenewalFrequency() {
+		return leaseRenewalFrequency;
+	}
+
+	/**
+	 *
+	 * @return lease acquisition and renewal metrics of this provider
+	 */
+	public LeaseMetrics getLeaseMetrics() {
+		return leaseMetrics;
+	}
+
+	/**
+	 * Leases a new generator ID in the datastore, trying up to maxLeaseRetries times.
+	 * Implementations call leaseMetrics.recordAcquisitionRetry() for each failed attempt.
+	 * @return the generator ID leased, -1 if none could be leased
+	 */
+	protected abstract int leaseNewId();
+
+	/**
+	 * Extends the lease of generatorID in the datastore
+	 * @throws LeaseTakenOverException if the datastore shows another process took the lease over
+	 * @throws Exception if the lease could not be renewed, e.g. the datastore could not be reached
+	 */
+	protected abstract void renewLease() throws Exception;
+
+	/**
+	 * Takes back a lease held before a restart, with a write conditional on the lease expiration still being the
+	 * one written then. Not supported by default.
+	 * @param generatorId generator ID leased before the restart
+	 * @param expirationWritten lease expiration written before the restart
+	 * @return true if the lease was reclaimed
+	 * @throws Exception if the datastore could not be reached
+	 */
+	protected boolean reclaimLease(int generatorId, long expirationWritten) throws Exception{
+		return false;
+	}
+
+	/**
+	 * Sets a lease as expired, with a write conditional on the lease expiration still being the one last written.
+	 * Not supported by default: the lease then expires by itself.
+	 * @param generatorId generator ID leased
+	 * @param expirationWritten lease expiration last written
+	 * @param expiredTime expiration to write, in the past
+	 * @return true if the lease was released
+	 * @throws Exception if the datastore could not be reached
+	 */
+	protected boolean releaseLease(int generatorId, long expirationWritten, long expiredTime) throws Exception{
+		return false;
+	}
+
+	/**
+	 *
+	 * @return the generator ID reclaimed from the lease cache, -1 if none
+	 */
+	/**
+	 *
+	 * @return the generator ID cached and reclaimed, -1 if none was cached or it was leased by another process
+	 * @throws Exception if the datastore failed, the cache is then kept
+	 */
+	private int reclaimCachedLease() throws Exception{
+		if(leaseCache == null){
+			return -1;
+		}
+		LeaseCacheFile.CachedLease cached = leaseCache.read();
+		if(cached == null){
+			return -1;
+		}
+		if(reclaimLease(cached.getGeneratorId(), cached.getExpiration())){
+			return cached.getGeneratorId();
+		}
+		leaseCache.clear();
+		return -1;
+	}
+
+	private void cacheLease(){
+		Integer leased = generatorID;
+		if(leaseCache != null && leased != null){
+			leaseCache.write(leased, leaseExpirationWritten);
+		}
+	}
+
+	private void scheduleLeaseRenewal(){
+		renewalTask = LeaseRenewalScheduler.getDefault().schedule(new LeaseRenewalScheduler.RenewalTask() {
+			public boolean renew() {
+				return AbstractGeneratorIDProvider.this.renew();
+			}
+
+			public long getLeaseExpiration() {
+				return leaseExpiration;
+			}
+		}, TimeUnit.SECONDS.toMillis(leaseRenewalFrequency));
+	}
+
+}
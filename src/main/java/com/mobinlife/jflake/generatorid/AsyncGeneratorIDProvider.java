@@ -0,0 +1,184 @@
+package com.mobinlife.jflake.generatorid;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Provider leasing its generator ID in the background, so that application startup does not wait for the round
+ * trips to the lease datastore. The lease is requested from the wrapped provider as soon as this provider is
+ * created; callers either wait for it with getId(), bounded by a timeout with getId(timeout), or get notified
+ * through getIdFuture(). A background lease which failed, e.g. during an outage of the datastore, is started again
+ * by the next call to getId(timeout), at most once per retry delay: the delay doubles after each failure, from
+ * 100ms up to 10s.
+ *
+ */
+public class AsyncGeneratorIDProvider implements GeneratorIDProvider {
+
+	private static final long MIN_RETRY_DELAY = 100;
+	private static final long MAX_RETRY_DELAY = 10000;
+
+	private final GeneratorIDProvider provider;
+	private final Executor executor;
+	private final ReentrantLock retryLock = new ReentrantLock();
+	private volatile CompletableFuture<Integer> leasedId;
+	private long retryDelay = MIN_RETRY_DELAY; // under the retry lock
+	private long nextRetry = 0; // under the retry lock
+	private boolean closed = false; // under the retry lock
+
+	/**
+	 * Starts leasing from a new daemon thread
+	 * @param provider provider doing the actual lease
+	 */
+	public AsyncGeneratorIDProvider(GeneratorIDProvider provider){
+		this(provider, new Executor() {
+			public void execute(Runnable command) {
+				Thread thread = new Thread(command, "jflake-lease-acquisition");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		});
+	}
+
+	/**
+	 * Starts leasing from executor
+	 * @param provider provider doing the actual lease
+	 * @param executor executor running the lease acquisition
+	 */
+	public AsyncGeneratorIDProvider(final GeneratorIDProvider provider, Executor executor){
+		if(provider == null){
+			throw new IllegalArgumentException("provider cannot be null");
+		}
+		if(executor == null){
+			throw new IllegalArgumentException("executor cannot be null");
+		}
+		this.provider = provider;
+		this.executor = executor;
+		this.leasedId = lease();
+	}
+
+	private CompletableFuture<Integer> lease(){
+		final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					future.complete(provider.getId());
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Starts a new background lease if the last one failed and the retry delay elapsed
+	 * @return the current background lease
+	 */
+	private CompletableFuture<Integer> retryIfFailed(){
+		CompletableFuture<Integer> current = leasedId;
+		if(!failed(current)){
+			return current;
+		}
+		retryLock.lock();
+		try {
+			long now = System.currentTimeMillis();
+			if(leasedId == current && !closed && now >= nextRetry){
+				nextRetry = now + retryDelay;
+				retryDelay = Math.min(2 * retryDelay, MAX_RETRY_DELAY);
+				leasedId = lease();
+			}
+			return leasedId;
+		} finally {
+			retryLock.unlock();
+		}
+	}
+
+	private static boolean failed(CompletableFuture<Integer> future){
+		return future.isDone() && (future.isCompletedExceptionally() || future.join() == -1);
+	}
+
+	/**
+	 * Waits for the background lease. If it failed, leases again from the calling thread.
+	 * @return the generator ID leased, -1 if none could be leased
+	 */
+	public int getId() {
+		int id;
+		try {
+			id = leasedId.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return -1;
+		} catch (ExecutionException e) {
+			id = -1;
+		}
+		return id != -1 ? id : provider.getId();
+	}
+
+	/**
+	 * Waits for the background lease at most timeoutMillis, starting it again first if it failed
+	 * @param timeoutMillis maximum wait in ms
+	 * @return the generator ID leased, -1 if none was leased in time
+	 */
+	public int getId(long timeoutMillis) {
+		try {
+			return retryIfFailed().get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return -1;
+		} catch (ExecutionException e) {
+			return -1;
+		} catch (TimeoutException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Closes the wrapped provider, once the background lease completes if it is still in progress
+	 */
+	public void close() {
+		CompletableFuture<Integer> current;
+		retryLock.lock();
+		try {
+			closed = true;
+			current = leasedId;
+		} finally {
+			retryLock.unlock();
+		}
+		current.whenComplete(new BiConsumer<Integer, Throwable>() {
+			public void accept(Integer generatorId, Throwable error) {
+				provider.close();
+			}
+		});
+	}
+
+	/**
+	 *
+	 * @return future completed with the generator ID leased by the current background lease, or -1 if none could
+	 * be leased: a new future once getId(timeout) started the lease again
+	 */
+	public CompletableFuture<Integer> getIdFuture() {
+		return leasedId;
+	}
+
+	/**
+	 *
+	 * @return true once the current background lease completed, successfully or not
+	 */
+	public boolean isDone() {
+		return leasedId.isDone();
+	}
+
+	/**
+	 *
+	 * @return the provider doing the actual lease
+	 */
+	public GeneratorIDProvider getProvider() {
+		return provider;
+	}
+
+}
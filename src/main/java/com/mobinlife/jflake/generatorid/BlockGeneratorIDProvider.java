@@ -0,0 +1,75 @@
+package com.mobinlife.jflake.generatorid;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Provider of one generator ID of a GeneratorIDBlock, handed out in memory without any network call.
+ * The lease is the one of the block, renewed by the block provider. Not being a lease based provider, it cannot
+ * feed a JFlakePool.
+ *
+ */
+public class BlockGeneratorIDProvider implements GeneratorIDProvider {
+
+	private final GeneratorIDBlock block;
+	// not a monitor: taking a generator ID waits for the lock of the block, held while it leases
+	private final ReentrantLock lock = new ReentrantLock();
+	private int generatorId = -1; // under the lock
+	private boolean closed = false; // under the lock
+
+	BlockGeneratorIDProvider(GeneratorIDBlock block){
+		this.block = block;
+	}
+
+	/**
+	 * Takes the first generator ID of the block not handed out yet
+	 */
+	public int getId() {
+		lock.lock();
+		try {
+			if(generatorId == -1 && !closed){
+				generatorId = block.acquire();
+			}
+			return generatorId;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gives the generator ID back to the block
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			if(generatorId != -1){
+				block.release(generatorId);
+				generatorId = -1;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * @return true if a generator ID is held and the lease of its block has not expired
+	 */
+	public boolean isLeaseValid() {
+		lock.lock();
+		try {
+			return generatorId != -1 && block.isLeaseValid();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * @return block the generator ID belongs to
+	 */
+	public GeneratorIDBlock getBlock() {
+		return block;
+	}
+
+}
@@ -1,20 +1,22 @@
 package com.mobinlife.jflake.generatorid;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.DescribeTableRequest;
 import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
 import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
 import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
 import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
 import com.amazonaws.services.dynamodbv2.model.ScanRequest;
@@ -29,121 +31,177 @@ import com.mobinlife.jflake.generatorid.configuration.DynamoGeneratorIDConfigura
  * @author Christophe
  *
  */
-public class DynamoGeneratorIDProvider implements GeneratorIDProvider {
+public class DynamoGeneratorIDProvider extends AbstractGeneratorIDProvider {
 
-	private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-	private int leaseExpirationTime;
-	private int maxLeaseRetries;
-	private int leaseRenewalFrequency;
-	
 	private AmazonDynamoDB dynamoClient;
 	private String dynamoTable;	
 	private String dynamoHashKeyName;
 	private String dynamoLeaseExpirationAttributeName;
-	
-	private Integer generatorID = null;
+	private int maxGeneratorId;
+	private volatile boolean tableChecked = false;
 	
 	public DynamoGeneratorIDProvider(DynamoGeneratorIDConfiguration config){
-		if(config == null){
-			throw new IllegalArgumentException("config cannot be null");
-		}
-		
+		super(config);
 		
 		this.dynamoClient = config.getDynamoClient();
 		this.dynamoTable = config.getDynamoTable();
-		this.leaseExpirationTime = config.getLeaseExpirationTime();
-		this.maxLeaseRetries = config.getMaxLeaseRetries();
-		this.leaseRenewalFrequency = config.getLeaseRenewalFrequency();
 		this.dynamoHashKeyName = config.getDynamoHashKeyName();
 		this.dynamoLeaseExpirationAttributeName = config.getDynamoLeaseExpirationAttributeName();
-		
-		if(!tableExists()){
-			throw new IllegalArgumentException("Dynamo table " + dynamoTable + " does not exist");
-		}
+		this.maxGeneratorId = config.getMaxGeneratorId();
 		
 	}
 	
-	public int getId() {
-		if(generatorID != null){
-			return generatorID;
-		} else {
-			return leaseNewId();
+	public int getMaxGeneratorId() {
+		return maxGeneratorId;
+	}
+
+	protected String getLeaseStore() {
+		return "Dynamo table " + dynamoTable;
+	}
+
+	/**
+	 * Probes random candidate IDs directly: a consistent read of the candidate, then a conditional write if it is free
+	 * or expired. Each probe takes one or two requests whatever the size of the table, and contenders spread over
+	 * different candidates instead of racing for the same one. Scanning the table is only a fallback when every
+	 * probe failed, e.g. when nearly all IDs are leased.
+	 */
+	protected int leaseNewId(){
+		// checked here rather than in the constructor, so that creating a provider does not wait for DynamoDB
+		if(!tableChecked){
+			try {
+				checkTable();
+			} catch (RuntimeException e) {
+				// no lease without the table: getId() returns -1 and the error is kept in the lease metrics
+				leaseMetrics.recordAcquisitionError(e);
+				return -1;
+			}
+		}
+		int candidateCount = maxGeneratorId + 1;
+		Random random = ThreadLocalRandom.current();
+		int candidate = random.nextInt(candidateCount);
+		int stride = coprimeStride(candidateCount, random);
+		int probes = Math.min(maxLeaseRetries + 1, candidateCount);
+		for(int i = 0; i < probes; i++){
+			try {
+				if(tryLease(candidate, readLeaseExpiration(candidate))){
+					return candidate;
+				}
+			} catch (AmazonClientException e) {
+				// the read failed, the next probe may not
+				leaseMetrics.recordAcquisitionError(e);
+			}
+			leaseMetrics.recordAcquisitionRetry();
+			candidate = (candidate + stride) % candidateCount;
 		}
+		return leaseFromScan(random);
 	}
 	
+	/**
+	 * Checks the table now rather than on the first lease, e.g. to fail fast at startup. Once the table was found,
+	 * leases do not check it anymore.
+	 * @throws IllegalArgumentException if the table does not exist or is not active
+	 * @throws RuntimeException if DynamoDB could not be reached
+	 */
+	public void checkTable(){
+		if(!tableExists()){
+			throw new IllegalArgumentException("Dynamo table " + dynamoTable + " does not exist or is not active");
+		}
+		tableChecked = true;
+	}
 
-	
-	private int leaseNewId(){
-		
+	private int leaseFromScan(Random random){
+		Map<Integer, Long> leases;
+		try {
+			leases = scanLeases();
+		} catch (AmazonClientException e) {
+			leaseMetrics.recordAcquisitionError(e);
+			return -1;
+		}
+		List<Integer> candidates = new ArrayList<Integer>();
+		long now = System.currentTimeMillis();
+		for(int id = 0; id <= maxGeneratorId; id++){
+			Long expiration = leases.get(id);
+			if(expiration == null || now > expiration){
+				candidates.add(id);
+			}
+		}
+		Collections.shuffle(candidates, random);
 		int tries = 0;
-		while(tries <= maxLeaseRetries){
-			tries++;
-			long now = System.currentTimeMillis();
-			long bookedLeaseOriginalExpirationDate = -1;
-			
-			SortedMap<Integer, Long> leases = getSortedLeasesFromDynamo(); // Map of LeaseId => LeaseExpirationTimestamp
-			
-			int leaseToBook=-1;
-			if(leases.size() == 0) {
-				// first lease
-				leaseToBook = 0;
-			} else {
-				for(Integer leaseId : leases.keySet()){
-					if(now > leases.get(leaseId)){
-						// this lease is expired
-						leaseToBook = leaseId;
-						bookedLeaseOriginalExpirationDate = leases.get(leaseId);
-					}
-				}
-				
-				if(leaseToBook == -1){ // no expired lease was found
-					leaseToBook = leases.lastKey()+1;
-				}
+		for(Integer candidate : candidates){
+			if(tries++ > maxLeaseRetries){
+				break;
 			}
-			
-			// booking the lease with Dynamo optimistic lock
-			if(bookedLeaseOriginalExpirationDate == -1){ 
-				// new entry
-				if(bookNewLease(leaseToBook, now+leaseExpirationTime)){
-					generatorID = leaseToBook;
-					scheduleLeaseRenewal();
-					return generatorID;
-				}
-			} else {
-				// lease an expired entry
-				if(bookExpiredLease(leaseToBook, now+leaseExpirationTime, bookedLeaseOriginalExpirationDate)){
-					generatorID = leaseToBook;
-					scheduleLeaseRenewal();
-					return generatorID;
-				}
+			if(tryLease(candidate, leases.get(candidate))){
+				return candidate;
 			}
+			leaseMetrics.recordAcquisitionRetry();
 		}
-		
 		return -1;
 	}
 	
-	private void scheduleLeaseRenewal(){
-		scheduler.scheduleWithFixedDelay(new Runnable() {
-			public void run() {
-				try {
-					renewLease();
-				} catch (Exception e) {
-					// failed to renew lease
-				}
-			}
-		}, leaseRenewalFrequency, leaseRenewalFrequency, TimeUnit.SECONDS);
+	/**
+	 * 
+	 * @param candidate generator ID to lease
+	 * @param currentExpiration expiration of its current lease, null if it was never leased
+	 * @return true if candidate was leased
+	 */
+	private boolean tryLease(int candidate, Long currentExpiration){
+		long now = System.currentTimeMillis();
+		if(currentExpiration == null){
+			return bookNewLease(candidate, now+leaseExpirationTime);
+		} else if(now > currentExpiration){
+			return bookExpiredLease(candidate, now+leaseExpirationTime, currentExpiration);
+		}
+		return false;
+	}
+	
+	/**
+	 * Renewals are conditional on the expiration last written, so that a lease taken over is never renewed
+	 */
+	protected void renewLease() throws LeaseTakenOverException{
+		try {
+			extendLease(generatorID, leaseExpirationWritten, System.currentTimeMillis()+leaseExpirationTime);
+		} catch (ConditionalCheckFailedException e) {
+			throw new LeaseTakenOverException("Lease of generator ID " + generatorID + " was taken over", e);
+		}
+	}
+	
+	protected boolean reclaimLease(int generatorId, long expirationWritten){
+		if(generatorId < 0 || generatorId > maxGeneratorId){
+			return false;
+		}
+		try {
+			extendLease(generatorId, expirationWritten, System.currentTimeMillis()+leaseExpirationTime);
+		} catch (ConditionalCheckFailedException e) {
+			return false;
+		}
+		return true;
+	}
+	
+	protected boolean releaseLease(int generatorId, long expirationWritten, long expiredTime){
+		try {
+			extendLease(generatorId, expirationWritten, expiredTime);
+		} catch (ConditionalCheckFailedException e) {
+			return false;
+		}
+		return true;
 	}
 	
-	private void renewLease(){
+	/**
+	 * Sets the expiration of a lease, if it is still expirationWritten
+	 */
+	private void extendLease(int leaseId, long expirationWritten, long expirationTime){
 		Map<String, ExpectedAttributeValue> expected = new HashMap<String, ExpectedAttributeValue>();
 		expected.put(dynamoHashKeyName, new ExpectedAttributeValue().withExists(true)
-				.withValue( new AttributeValue().withN(String.valueOf(generatorID))));
+				.withValue( new AttributeValue().withN(String.valueOf(leaseId))));
+		expected.put(dynamoLeaseExpirationAttributeName, new ExpectedAttributeValue()
+				.withValue(new AttributeValue().withN(String.valueOf(expirationWritten))));
 		
 		Map<String, AttributeValue> item = new HashMap<String, AttributeValue>();
-		item.put(dynamoHashKeyName, new AttributeValue().withN(String.valueOf(generatorID)));
+		item.put(dynamoHashKeyName, new AttributeValue().withN(String.valueOf(leaseId)));
 		item.put(dynamoLeaseExpirationAttributeName
 				, new AttributeValue()
-					.withN(String.valueOf(System.currentTimeMillis()+leaseExpirationTime)));
+					.withN(String.valueOf(expirationTime)));
 		
 		PutItemRequest putItemRequest = new PutItemRequest()
 			.withTableName(dynamoTable)
@@ -152,6 +210,7 @@ public class DynamoGeneratorIDProvider implements GeneratorIDProvider {
 		
 		
 		dynamoClient.putItem(putItemRequest);
+		leaseExpirationWritten = expirationTime;
 	
 	}
 	
@@ -177,11 +236,15 @@ public class DynamoGeneratorIDProvider implements GeneratorIDProvider {
 		
 		try {
 			dynamoClient.putItem(putItemRequest);
-		} catch (Exception e){
-			e.printStackTrace();
+		} catch (ConditionalCheckFailedException e){
+			// another process booked it first
+			return false;
+		} catch (AmazonClientException e){
+			leaseMetrics.recordAcquisitionError(e);
 			return false;
 		}
 		
+		leaseExpirationWritten = expirationTime;
 		return true;
 	}
 	
@@ -202,10 +265,15 @@ public class DynamoGeneratorIDProvider implements GeneratorIDProvider {
 		
 		try {
 			dynamoClient.putItem(putItemRequest);
-		} catch (Exception e){
+		} catch (ConditionalCheckFailedException e){
+			// another process booked it first
+			return false;
+		} catch (AmazonClientException e){
+			leaseMetrics.recordAcquisitionError(e);
 			return false;
 		}
 		
+		leaseExpirationWritten = expirationTime;
 		return true;
 	}
 	
@@ -218,8 +286,7 @@ public class DynamoGeneratorIDProvider implements GeneratorIDProvider {
 		} catch (ResourceNotFoundException e) {
 			return false;
 		} catch (AmazonClientException e) {
-
-			throw new RuntimeException("Dynamo error when checking for table existence");
+			throw new RuntimeException("Dynamo error when checking for table existence", e);
 		}
 
 		String tableStatus = result.getTable().getTableStatus();
@@ -227,51 +294,65 @@ public class DynamoGeneratorIDProvider implements GeneratorIDProvider {
 		return TableStatus.ACTIVE.name().equals(tableStatus);
 	}
 
-	private SortedMap<Integer, Long> getSortedLeasesFromDynamo(){
-		
-		ScanRequest scanRequest = new ScanRequest()
-			.withTableName(dynamoTable);
-		
-		ScanResult scanResult = dynamoClient.scan(scanRequest);
-		if(scanResult != null){
-			if(scanResult.getItems() != null){
-				List<Map<String, AttributeValue>> currentLeases = scanResult.getItems();
-				if(scanResult.getLastEvaluatedKey() != null && scanResult.getLastEvaluatedKey().size() > 0){
-					currentLeases.addAll(scanFurther(scanResult));
-				}
-				return sortLeases(currentLeases);
-			} 
+	/**
+	 * 
+	 * @return expiration of the lease of candidate, null if it was never leased
+	 */
+	private Long readLeaseExpiration(int candidate){
+		Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+		key.put(dynamoHashKeyName, new AttributeValue().withN(String.valueOf(candidate)));
+		GetItemResult result = dynamoClient.getItem(new GetItemRequest()
+			.withTableName(dynamoTable)
+			.withKey(key)
+			.withConsistentRead(true));
+		if(result == null || result.getItem() == null || result.getItem().get(dynamoLeaseExpirationAttributeName) == null){
+			return null;
 		}
-		return null;
+		return Long.parseLong(result.getItem().get(dynamoLeaseExpirationAttributeName).getN());
 	}
 	
-	private SortedMap<Integer, Long> sortLeases(List<Map<String, AttributeValue>> currentLeases){
-		SortedMap<Integer, Long> sortedLeases = new TreeMap<Integer, Long>();
-
-		for(Map<String, AttributeValue> item : currentLeases){
-			sortedLeases.put(Integer.parseInt(item.get(dynamoHashKeyName).getN())
-					, Long.parseLong(item.get(dynamoLeaseExpirationAttributeName).getN()));
+	/**
+	 * 
+	 * @return Map of LeaseId => LeaseExpirationTimestamp of the whole table
+	 */
+	private Map<Integer, Long> scanLeases(){
+		Map<Integer, Long> leases = new HashMap<Integer, Long>();
+		Map<String, AttributeValue> lastEvaluatedKey = null;
+		do {
+			ScanRequest scanRequest = new ScanRequest()
+				.withTableName(dynamoTable)
+				.withExclusiveStartKey(lastEvaluatedKey);
+			ScanResult scanResult = dynamoClient.scan(scanRequest);
+			if(scanResult == null || scanResult.getItems() == null){
+				break;
+			}
+			for(Map<String, AttributeValue> item : scanResult.getItems()){
+				leases.put(Integer.parseInt(item.get(dynamoHashKeyName).getN())
+						, Long.parseLong(item.get(dynamoLeaseExpirationAttributeName).getN()));
+			}
+			lastEvaluatedKey = scanResult.getLastEvaluatedKey();
+		} while(lastEvaluatedKey != null && lastEvaluatedKey.size() > 0);
+		return leases;
+	}
+	
+	private static int coprimeStride(int candidateCount, Random random){
+		if(candidateCount == 1){
+			return 1;
 		}
-		
-		return sortedLeases;
+		int stride;
+		do {
+			stride = 1 + random.nextInt(candidateCount - 1);
+		} while(gcd(stride, candidateCount) != 1);
+		return stride;
 	}
 	
-	List<Map<String, AttributeValue>> scanFurther(ScanResult incomingScanResult){
-		
-		ScanRequest scanRequest = new ScanRequest()
-			.withTableName(dynamoTable)
-			.withExclusiveStartKey(incomingScanResult.getLastEvaluatedKey());
-		ScanResult scanResult = dynamoClient.scan(scanRequest);
-		List<Map<String, AttributeValue>> result = incomingScanResult.getItems();
-		if(scanResult != null){
-			if(scanResult.getItems() != null){
-				result.addAll(scanResult.getItems());
-				if(scanResult.getLastEvaluatedKey() != null && scanResult.getLastEvaluatedKey().size() > 0){
-					result.addAll(scanFurther(scanResult));
-				}
-			}
+	private static int gcd(int a, int b){
+		while(b != 0){
+			int t = a % b;
+			a = b;
+			b = t;
 		}
-		return result;
+		return a;
 	}
 
 }
@@ -0,0 +1,200 @@
+package com.mobinlife.jflake.generatorid;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.mobinlife.jflake.generatorid.configuration.FileLockGeneratorIDConfiguration;
+
+/**
+ * Generator ID provider for the processes of a single host, with no datastore: generator ID n is leased by locking
+ * byte n of a file shared by the processes. Leasing takes a few system calls, and the operating system releases the
+ * lock, hence the generator ID, when the process ends, whatever the way it ends.
+ *
+ * All the providers of a JVM using the same file share one channel on it: on some systems closing a channel
+ * releases every lock the process holds on the file.
+ * <p>
+ * For the generator IDs of a block leased by a GeneratorIDBlock (blockLease in the configuration), the lock file
+ * starts with a header where the JVM holding the block publishes its first generator ID and the expiration of its
+ * lease, and generator ID n is locked at byte HEADER_SIZE + n. The provider only hands its generator ID out while
+ * that lease is valid: once the block is released or lost, or the JVM holding it ended without renewing it,
+ * getId() returns -1 and isLeaseValid() false.
+ *
+ */
+public class FileLockGeneratorIDProvider implements GeneratorIDProvider {
+
+	private static final Map<String, FileChannel> CHANNELS = new HashMap<String, FileChannel>();
+	private static final int HEADER_MAGIC = 0x4A464C42; // "JFLB"
+	// magic, first generator ID of the block, lease expiration, checksum
+	static final int HEADER_SIZE = 24;
+
+	private final FileChannel channel;
+	private final int firstGeneratorId;
+	private final int maxGeneratorId;
+	private final boolean blockLease;
+	// position of the byte locked for generator ID 0
+	private final long lockOffset;
+	private final ReentrantLock leaseLock = new ReentrantLock();
+	private volatile FileLock lock = null;
+	private boolean closed = false; // under the lease lock
+
+	public FileLockGeneratorIDProvider(FileLockGeneratorIDConfiguration config){
+		if(config == null){
+			throw new IllegalArgumentException("config cannot be null");
+		}
+		this.firstGeneratorId = config.getFirstGeneratorId();
+		this.maxGeneratorId = config.getMaxGeneratorId();
+		this.blockLease = config.isBlockLease();
+		this.lockOffset = blockLease ? HEADER_SIZE : 0;
+		try {
+			this.channel = channelOf(new File(config.getLockFile()));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("lockFile " + config.getLockFile() + " cannot be opened", e);
+		}
+	}
+
+	/**
+	 * Locks the first generator ID available, starting from a random one
+	 * @return the generator ID locked, -1 if none is available or the lease of the block is not valid
+	 */
+	public int getId() {
+		FileLock held = lock;
+		if(held != null){
+			return isBlockLeaseValid() ? (int) (held.position() - lockOffset) : -1;
+		}
+
+		leaseLock.lock();
+		try {
+			if(lock != null){
+				return isBlockLeaseValid() ? (int) (lock.position() - lockOffset) : -1;
+			}
+			if(closed || !isBlockLeaseValid()){
+				return -1;
+			}
+			int count = maxGeneratorId - firstGeneratorId + 1;
+			int start = ThreadLocalRandom.current().nextInt(count);
+			for(int i = 0; i < count; i++){
+				int candidate = firstGeneratorId + (start + i) % count;
+				FileLock locked = tryLock(candidate);
+				if(locked != null){
+					lock = locked;
+					return candidate;
+				}
+			}
+			return -1;
+		} finally {
+			leaseLock.unlock();
+		}
+	}
+
+	/**
+	 * Unlocks the generator ID. The shared channel stays open, as closing it could release the locks of the other
+	 * providers of this JVM.
+	 */
+	public void close() {
+		leaseLock.lock();
+		try {
+			closed = true;
+			if(lock != null){
+				try {
+					lock.release();
+				} catch (IOException e) {
+					// released anyway when the process ends
+				}
+				lock = null;
+			}
+		} finally {
+			leaseLock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * @return true if a generator ID is locked, and the lease of its block is valid if it belongs to one
+	 */
+	public boolean isLeaseValid() {
+		FileLock held = lock;
+		return held != null && held.isValid() && isBlockLeaseValid();
+	}
+
+	private boolean isBlockLeaseValid(){
+		if(!blockLease){
+			return true;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		// a header read while being written fails its checksum: read again once
+		for(int attempt = 0; attempt < 2; attempt++){
+			header.clear();
+			try {
+				while(header.hasRemaining() && channel.read(header, header.position()) > 0){
+					// read the whole header
+				}
+			} catch (IOException e) {
+				return false;
+			}
+			if(header.hasRemaining()){
+				return false;
+			}
+			int first = header.getInt(4);
+			long expiration = header.getLong(8);
+			if(header.getInt(0) == HEADER_MAGIC && header.getLong(16) == checksum(first, expiration)){
+				return first == firstGeneratorId && System.currentTimeMillis() < expiration;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Publishes the lease of a block in its lock file, for the providers of the other processes
+	 * @param lockFile
+	 * @param firstGeneratorId first generator ID of the block
+	 * @param expiration expiration of the lease of the block, 0 once it is released or lost
+	 * @throws IOException if the lock file could not be written
+	 */
+	static void writeBlockLease(String lockFile, int firstGeneratorId, long expiration) throws IOException{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(HEADER_MAGIC).putInt(firstGeneratorId).putLong(expiration)
+				.putLong(checksum(firstGeneratorId, expiration));
+		header.flip();
+		FileChannel channel = channelOf(new File(lockFile));
+		while(header.hasRemaining()){
+			channel.write(header, header.position());
+		}
+	}
+
+	private static long checksum(int firstGeneratorId, long expiration){
+		return (HEADER_MAGIC * 31L + firstGeneratorId) * 0x9E3779B97F4A7C15L ^ expiration;
+	}
+
+	private FileLock tryLock(int candidate){
+		try {
+			return channel.tryLock(lockOffset + candidate, 1, false);
+		} catch (OverlappingFileLockException e) {
+			// locked by another provider of this JVM
+			return null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static FileChannel channelOf(File file) throws IOException{
+		String path = file.getCanonicalPath();
+		synchronized (CHANNELS) {
+			FileChannel channel = CHANNELS.get(path);
+			if(channel == null || !channel.isOpen()){
+				channel = new RandomAccessFile(file, "rw").getChannel();
+				CHANNELS.put(path, channel);
+			}
+			return channel;
+		}
+	}
+
+}
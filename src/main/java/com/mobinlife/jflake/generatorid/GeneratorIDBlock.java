@@ -0,0 +1,294 @@
+package com.mobinlife.jflake.generatorid;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.mobinlife.jflake.IdLayout;
+import com.mobinlife.jflake.generatorid.configuration.FileLockGeneratorIDConfiguration;
+
+/**
+ * Node agent leasing a block of 2^blockBits consecutive generator IDs with a single lease, and handing them out
+ * locally: the lease of block b, taken and renewed by the block provider, covers the generator IDs
+ * b * 2^blockBits to (b + 1) * 2^blockBits - 1. The datastore traffic then depends on the number of nodes instead
+ * of the number of generators, and generator IDs are handed out without any network call.
+ * <p>
+ * The block provider leases block indexes instead of generator IDs: its maxGeneratorId must be the number of blocks
+ * minus one, e.g. 31 for blocks of 16 (blockBits = 4) out of the 512 generator IDs of the default IdLayout, which
+ * is checked against the IdLayout at construction. Its key or table must hold block indexes only: single generator
+ * ID leases in the same one would overlap the blocks. This is checked within the JVM only.
+ * Without a lock file, the generator IDs of the block go to the providers of this JVM. With a lock file, they are
+ * locked in it like with a FileLockGeneratorIDProvider, so that processes of the host configured with
+ * getFileLockConfiguration() share the block with this JVM. The lease of the block is then published in the lock
+ * file, rewritten from the LeaseRenewalScheduler at twice the renewal frequency of the block provider, and the
+ * providers of the other processes stop handing their generator IDs out once it expires.
+ * The providers of a block are not lease based providers, so they cannot feed a JFlakePool: create a JFlake per
+ * generator ID instead.
+ *
+ */
+public class GeneratorIDBlock implements AutoCloseable {
+
+	private final AbstractGeneratorIDProvider blockProvider;
+	private final int blockBits;
+	private final int blockSize;
+	private final int maxBlockIndex;
+	private final String lockFile;
+	// not a monitor: leasing the block involves network calls
+	private final ReentrantLock lock = new ReentrantLock();
+	private final BitSet handedOut;
+	private int blockIndex = -1; // under the lock
+	private boolean closed = false; // under the lock
+	// lock files the lease of the block is published in
+	private final List<String> publishedFiles = new ArrayList<String>(); // under the lock
+	private LeaseRenewalScheduler.Renewal publication = null; // under the lock
+
+	/**
+	 * Block of generator IDs of the default IdLayout, handed out in this JVM
+	 * @param blockProvider provider leasing the block index
+	 * @param blockBits number of low generator ID bits left to the block, between 0 and 16
+	 */
+	public GeneratorIDBlock(AbstractGeneratorIDProvider blockProvider, int blockBits){
+		this(blockProvider, blockBits, IdLayout.DEFAULT, null);
+	}
+
+	/**
+	 * Block of generator IDs of the default IdLayout
+	 * @param blockProvider provider leasing the block index
+	 * @param blockBits number of low generator ID bits left to the block, between 0 and 16
+	 * @param lockFile path of the file the generator IDs of the block are locked in, shared with the processes of
+	 * the host, null to hand them out in this JVM only
+	 */
+	public GeneratorIDBlock(AbstractGeneratorIDProvider blockProvider, int blockBits, String lockFile){
+		this(blockProvider, blockBits, IdLayout.DEFAULT, lockFile);
+	}
+
+	/**
+	 *
+	 * @param blockProvider provider leasing the block index, from a key or table of its own
+	 * @param blockBits number of low generator ID bits left to the block, between 0 and 16
+	 * @param layout layout of the IDs generated, the generator IDs of every block must fit in
+	 * @param lockFile path of the file the generator IDs of the block are locked in, shared with the processes of
+	 * the host, null to hand them out in this JVM only
+	 * @throws IllegalArgumentException if the blocks the provider leases do not fit in the layout, or its key or
+	 * table holds generator IDs leased in this JVM
+	 */
+	public GeneratorIDBlock(AbstractGeneratorIDProvider blockProvider, int blockBits, IdLayout layout, String lockFile){
+		if(blockProvider == null){
+			throw new IllegalArgumentException("blockProvider cannot be null");
+		}
+		if(layout == null){
+			throw new IllegalArgumentException("layout cannot be null");
+		}
+		if(blockBits < 0 || blockBits > 16){
+			throw new IllegalArgumentException("blockBits must be between 0 and 16");
+		}
+		if(blockBits > layout.getGeneratorBits()){
+			throw new IllegalArgumentException("blockBits cannot exceed the " + layout.getGeneratorBits()
+					+ " generator bits of the layout");
+		}
+		this.maxBlockIndex = layout.getMaxGeneratorId() >>> blockBits;
+		if(blockProvider.getMaxGeneratorId() > maxBlockIndex){
+			throw new IllegalArgumentException("blockProvider leases block indexes up to " + blockProvider.getMaxGeneratorId()
+					+ ", blocks of " + (1 << blockBits) + " generator IDs only fit up to " + maxBlockIndex
+					+ ": set its maxGeneratorId to " + maxBlockIndex);
+		}
+		blockProvider.leaseBlockIndexes();
+		this.blockProvider = blockProvider;
+		this.blockBits = blockBits;
+		this.blockSize = 1 << blockBits;
+		this.lockFile = lockFile;
+		this.handedOut = new BitSet(blockSize);
+	}
+
+	/**
+	 * Leases the block, if not leased yet
+	 * @return the block index, -1 if no block could be leased, or only one out of the layout
+	 */
+	public int lease(){
+		lock.lock();
+		try {
+			if(closed){
+				return -1;
+			}
+			if(blockIndex == -1){
+				int index = blockProvider.getId();
+				// a provider which does not tell its maxGeneratorId is only checked here
+				if(index <= maxBlockIndex){
+					blockIndex = index;
+				}
+			}
+			return blockIndex;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * New provider of one generator ID of the block, leasing the block first if needed
+	 * @return the provider
+	 * @throws IllegalStateException if no block could be leased
+	 */
+	public GeneratorIDProvider newProvider(){
+		if(lockFile != null){
+			return new FileLockGeneratorIDProvider(getFileLockConfiguration(lockFile));
+		}
+		if(lease() == -1){
+			throw new IllegalStateException("No block of generator IDs could be leased");
+		}
+		return new BlockGeneratorIDProvider(this);
+	}
+
+	/**
+	 * Configuration of file lock providers handing out the generator IDs of the block, for processes of the host.
+	 * The lease of the block is published in lockFile from then on: the providers hand their generator IDs out
+	 * only while it is valid, so not anymore once this JVM closes the block, loses its lease or ends.
+	 * @param lockFile path of the file shared by the processes, the lock file of this block if it has one
+	 * @return the configuration
+	 * @throws IllegalStateException if no block could be leased, or its lease could not be written in lockFile
+	 */
+	public FileLockGeneratorIDConfiguration getFileLockConfiguration(String lockFile){
+		int index = lease();
+		if(index == -1){
+			throw new IllegalStateException("No block of generator IDs could be leased");
+		}
+		lock.lock();
+		try {
+			if(!publishedFiles.contains(lockFile)){
+				FileLockGeneratorIDProvider.writeBlockLease(lockFile, index << blockBits, leaseExpiration(index));
+				publishedFiles.add(lockFile);
+			}
+			if(publication == null && !closed){
+				publication = LeaseRenewalScheduler.getDefault().schedule(new LeaseRenewalScheduler.RenewalTask() {
+					public boolean renew() {
+						return publishLease();
+					}
+
+					public long getLeaseExpiration() {
+						return blockProvider.getLeaseExpiration();
+					}
+				}, Math.max(LeaseRenewalScheduler.MIN_DELAY_MILLIS
+						, TimeUnit.SECONDS.toMillis(blockProvider.getLeaseRenewalFrequency()) / 2));
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("The lease of the block cannot be written in " + lockFile, e);
+		} finally {
+			lock.unlock();
+		}
+		return new FileLockGeneratorIDConfiguration(lockFile, index << blockBits, (index << blockBits) + blockSize - 1
+				, true);
+	}
+
+	/**
+	 *
+	 * @return true if the block is leased and its lease has not expired
+	 */
+	public boolean isLeaseValid(){
+		return blockProvider.isLeaseValid();
+	}
+
+	/**
+	 *
+	 * @return number of generator IDs in the block
+	 */
+	public int getBlockSize(){
+		return blockSize;
+	}
+
+	/**
+	 *
+	 * @return provider leasing the block
+	 */
+	public AbstractGeneratorIDProvider getBlockProvider(){
+		return blockProvider;
+	}
+
+	/**
+	 * Releases the block. Its generator IDs must not be used anymore: close the providers of the block first.
+	 */
+	public void close(){
+		lock.lock();
+		try {
+			closed = true;
+			blockIndex = -1;
+			handedOut.clear();
+			if(publication != null){
+				publication.cancel();
+				publication = null;
+			}
+			// before the lease is released, so that the other processes stop first
+			publishLease();
+		} finally {
+			lock.unlock();
+		}
+		blockProvider.close();
+	}
+
+	/**
+	 * Writes the lease of the block in the lock files it is published in, as expired if the block is not leased
+	 * anymore
+	 * @return true if every lock file was written
+	 */
+	private boolean publishLease(){
+		lock.lock();
+		try {
+			int first = blockIndex == -1 ? -1 : blockIndex << blockBits;
+			long expiration = leaseExpiration(blockIndex);
+			boolean published = true;
+			for(String file : publishedFiles){
+				try {
+					FileLockGeneratorIDProvider.writeBlockLease(file, first, expiration);
+				} catch (IOException e) {
+					published = false;
+				}
+			}
+			return published;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 *
+	 * @return expiration of the lease of block index, 0 if the block provider does not hold it anymore
+	 */
+	private long leaseExpiration(int index){
+		Integer leased = blockProvider.generatorID;
+		return index != -1 && leased != null && leased == index ? blockProvider.getLeaseExpiration() : 0;
+	}
+
+	/**
+	 *
+	 * @return a generator ID of the block not handed out yet, -1 if there is none
+	 */
+	int acquire(){
+		lock.lock();
+		try {
+			if(closed || blockIndex == -1){
+				return -1;
+			}
+			int slot = handedOut.nextClearBit(0);
+			if(slot >= blockSize){
+				return -1;
+			}
+			handedOut.set(slot);
+			return (blockIndex << blockBits) | slot;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void release(int generatorId){
+		lock.lock();
+		try {
+			if(blockIndex != -1 && generatorId >>> blockBits == blockIndex){
+				handedOut.clear(generatorId & (blockSize - 1));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
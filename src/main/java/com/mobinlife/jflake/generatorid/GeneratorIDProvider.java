@@ -1,6 +1,6 @@
 package com.mobinlife.jflake.generatorid;
 
-public interface GeneratorIDProvider {
+public interface GeneratorIDProvider extends AutoCloseable {
 
 	/**
 	 * Get the generator ID leased, or -1 if no lease was available
@@ -8,4 +8,11 @@ public interface GeneratorIDProvider {
 	 */
 	public int getId();
 	
+	/**
+	 * Gives the generator ID leased back. The provider does not lease anymore once closed.
+	 * Does nothing by default, for providers without anything to give back.
+	 */
+	public default void close() {
+	}
+	
 }
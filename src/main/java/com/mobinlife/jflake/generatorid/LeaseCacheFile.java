@@ -0,0 +1,197 @@
+package com.mobinlife.jflake.generatorid;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Local file remembering the lease of a provider across restarts: the generator ID leased and the lease expiration
+ * written in the datastore. On restart, the provider reclaims the same generator ID with a single conditional
+ * write, which only succeeds if nobody leased it in the meantime.
+ *
+ * The file is locked while in use, so a cache is only used by one process at a time: a second process configured
+ * with the same file leases without it. Within a JVM, caches of the same file share one channel, as closing any
+ * channel of a file releases the locks of the whole process on it.
+ *
+ */
+public class LeaseCacheFile {
+
+	private static final int MAGIC = 0x4A464C4B; // "JFLK"
+	private static final int RECORD_SIZE = 20;
+	// one channel per file and JVM, guarding the channels and the locks taken through them
+	private static final Map<String, FileChannel> CHANNELS = new HashMap<String, FileChannel>();
+
+	private final File file;
+	private final FileChannel channel;
+	private final FileLock lock;
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+	/**
+	 * A lease read from the file
+	 */
+	public static final class CachedLease {
+		private final int generatorId;
+		private final long expiration;
+
+		private CachedLease(int generatorId, long expiration){
+			this.generatorId = generatorId;
+			this.expiration = expiration;
+		}
+
+		public int getGeneratorId() {
+			return generatorId;
+		}
+
+		/**
+		 *
+		 * @return lease expiration as last written in the datastore
+		 */
+		public long getExpiration() {
+			return expiration;
+		}
+	}
+
+	/**
+	 * Opens the file, creating it if needed, and locks it if no other process uses it
+	 * @param file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public LeaseCacheFile(File file) throws IOException{
+		if(file == null){
+			throw new IllegalArgumentException("file cannot be null");
+		}
+		this.file = file;
+		String path = file.getCanonicalPath();
+		synchronized (CHANNELS) {
+			FileChannel shared = CHANNELS.get(path);
+			if(shared == null || !shared.isOpen()){
+				shared = new RandomAccessFile(file, "rw").getChannel();
+				CHANNELS.put(path, shared);
+			}
+			FileLock acquired;
+			try {
+				acquired = shared.tryLock();
+			} catch (OverlappingFileLockException e) {
+				// locked by this JVM, through another provider
+				acquired = null;
+			} catch (IOException e) {
+				// no lock is held through the channel, or tryLock would have thrown OverlappingFileLockException
+				CHANNELS.remove(path);
+				closeQuietly(shared);
+				throw e;
+			}
+			this.channel = shared;
+			this.lock = acquired;
+		}
+	}
+
+	/**
+	 *
+	 * @return true if this process holds the file: read() and write() are no-ops otherwise
+	 */
+	public boolean isLocked(){
+		return lock != null;
+	}
+
+	/**
+	 *
+	 * @return the lease cached, null if none or the file is not locked
+	 */
+	public synchronized CachedLease read(){
+		if(lock == null){
+			return null;
+		}
+		try {
+			record.clear();
+			while(record.hasRemaining() && channel.read(record, record.position()) > 0){
+				// read the whole record
+			}
+			if(record.hasRemaining()){
+				return null;
+			}
+			int magic = record.getInt(0);
+			int generatorId = record.getInt(4);
+			long expiration = record.getLong(8);
+			if(magic != MAGIC || record.getInt(16) != checksum(generatorId, expiration)){
+				return null;
+			}
+			return new CachedLease(generatorId, expiration);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Caches a lease, synchronously written to the disk
+	 * @param generatorId
+	 * @param expiration lease expiration as written in the datastore
+	 */
+	public synchronized void write(int generatorId, long expiration){
+		if(lock == null){
+			return;
+		}
+		record.clear();
+		record.putInt(MAGIC).putInt(generatorId).putLong(expiration).putInt(checksum(generatorId, expiration));
+		record.flip();
+		try {
+			while(record.hasRemaining()){
+				channel.write(record, record.position());
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			// the cache only speeds up restarts
+		}
+	}
+
+	/**
+	 * Forgets the lease cached
+	 */
+	public synchronized void clear(){
+		if(lock == null){
+			return;
+		}
+		try {
+			channel.truncate(0);
+			channel.force(false);
+		} catch (IOException e) {
+			// a stale lease cannot be reclaimed anyway
+		}
+	}
+
+	/**
+	 * Releases the file lock and closes the file, if this cache holds it: the channel is left open otherwise
+	 */
+	public synchronized void close(){
+		if(lock == null){
+			return;
+		}
+		synchronized (CHANNELS) {
+			// the channel is only closed by the cache holding the lock, so other caches never lose it
+			CHANNELS.values().remove(channel);
+			closeQuietly(channel);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	private static void closeQuietly(FileChannel channel){
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing left to release
+		}
+	}
+
+	private static int checksum(int generatorId, long expiration){
+		return MAGIC * 31 + generatorId * 17 + (int) (expiration ^ (expiration >>> 32));
+	}
+
+}
@@ -0,0 +1,177 @@
+package com.mobinlife.jflake.generatorid;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide scheduler of lease renewals, shared by all the providers so that a process runs a single renewal
+ * thread (a daemon thread) however many leases it holds.
+ *
+ * Renewals are spread in time rather than run at a fixed rate: the first renewal of a lease happens at a random
+ * point of its first period and every period is jittered, so generators started together do not renew together.
+ * After a failure, the renewal is retried after a delay growing with the consecutive failures, but never later than
+ * halfway to the expiration of the lease: retries become more frequent as the expiration approaches.
+ *
+ */
+public class LeaseRenewalScheduler {
+
+	/**
+	 * Shortest delay between two renewals of a lease, in ms
+	 */
+	public static final long MIN_DELAY_MILLIS = 100;
+	private static final double JITTER = 0.1;
+
+	private static final LeaseRenewalScheduler DEFAULT = new LeaseRenewalScheduler("jflake-lease-renewal");
+
+	/**
+	 * A lease to renew
+	 */
+	public interface RenewalTask {
+
+		/**
+		 * Renews the lease, called from the scheduler thread
+		 * @return true if the lease was renewed
+		 */
+		public boolean renew();
+
+		/**
+		 *
+		 * @return time the lease expires at in ms since 1970-01-01 00:00 GMT
+		 */
+		public long getLeaseExpiration();
+
+	}
+
+	/**
+	 * Handle on a scheduled renewal
+	 */
+	public interface Renewal {
+
+		/**
+		 * Stops renewing the lease. A renewal in progress completes.
+		 */
+		public void cancel();
+
+	}
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	/**
+	 *
+	 * @param threadName name of the renewal thread
+	 */
+	public LeaseRenewalScheduler(final String threadName){
+		this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, threadName);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.executor.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 *
+	 * @return the scheduler shared by the providers of this process
+	 */
+	public static LeaseRenewalScheduler getDefault(){
+		return DEFAULT;
+	}
+
+	/**
+	 * Starts renewing a lease about every periodMillis
+	 * @param task lease to renew
+	 * @param periodMillis renewal period in ms, when renewals succeed
+	 * @return handle to stop the renewals
+	 */
+	public Renewal schedule(RenewalTask task, long periodMillis){
+		if(task == null){
+			throw new IllegalArgumentException("task cannot be null");
+		}
+		if(periodMillis < MIN_DELAY_MILLIS){
+			throw new IllegalArgumentException("periodMillis must be at least " + MIN_DELAY_MILLIS + "ms");
+		}
+		ScheduledRenewal renewal = new ScheduledRenewal(task, periodMillis);
+		long firstDelay = (long) (periodMillis * (0.5 + 0.5 * ThreadLocalRandom.current().nextDouble()));
+		renewal.scheduleIn(firstDelay);
+		return renewal;
+	}
+
+	/**
+	 *
+	 * @return number of renewals scheduled
+	 */
+	public int getScheduledCount(){
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Delay before the next renewal
+	 * @param periodMillis renewal period when renewals succeed
+	 * @param failures consecutive failed renewals
+	 * @param remainingMillis time left before the lease expires
+	 */
+	static long nextDelay(long periodMillis, int failures, long remainingMillis, Random random){
+		long delay;
+		if(failures == 0){
+			delay = periodMillis;
+		} else {
+			// first retry at 1/8th of the period, doubling up to the period
+			delay = Math.max(MIN_DELAY_MILLIS, periodMillis >> Math.max(0, 4 - Math.min(failures, 4)));
+		}
+		delay = (long) (delay * (1 - JITTER + 2 * JITTER * random.nextDouble()));
+		if(remainingMillis > 0){
+			delay = Math.min(delay, remainingMillis / 2);
+		}
+		return Math.max(MIN_DELAY_MILLIS, delay);
+	}
+
+	private class ScheduledRenewal implements Renewal, Runnable {
+
+		private final RenewalTask task;
+		private final long periodMillis;
+		private int failures = 0; // scheduler thread only
+		private volatile boolean cancelled = false;
+		private volatile ScheduledFuture<?> next;
+
+		private ScheduledRenewal(RenewalTask task, long periodMillis){
+			this.task = task;
+			this.periodMillis = periodMillis;
+		}
+
+		public void run() {
+			if(cancelled){
+				return;
+			}
+			boolean renewed;
+			try {
+				renewed = task.renew();
+			} catch (RuntimeException e) {
+				renewed = false;
+			}
+			failures = renewed ? 0 : failures + 1;
+			long remaining = task.getLeaseExpiration() - System.currentTimeMillis();
+			scheduleIn(nextDelay(periodMillis, failures, remaining, ThreadLocalRandom.current()));
+		}
+
+		private void scheduleIn(long delayMillis){
+			if(!cancelled){
+				next = executor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		public void cancel() {
+			cancelled = true;
+			ScheduledFuture<?> scheduled = next;
+			if(scheduled != null){
+				scheduled.cancel(false);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.mobinlife.jflake.generatorid;
+
+/**
+ * Thrown by a renewal when the datastore shows that another process took the lease over, as opposed to a renewal
+ * which could not reach the datastore: the generator ID must not be used anymore
+ *
+ */
+public class LeaseTakenOverException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public LeaseTakenOverException(String message){
+		super(message);
+	}
+
+	public LeaseTakenOverException(String message, Throwable cause){
+		super(message, cause);
+	}
+
+}
@@ -1,162 +1,217 @@
 package com.mobinlife.jflake.generatorid;
 
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import com.mobinlife.jflake.generatorid.configuration.RedisGeneratorIDConfiguration;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
-import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
 
 /**
  * GeneratorID provider using a Redis HASH. Will lease a generator ID and regularly update the lease expiration date.
- * Upon id lease, will look for expired leases and atomically take one if applicable. 
+ * Leases are taken and renewed by Lua scripts run atomically by Redis, in a single round trip: the lease script
+ * takes the lowest generator ID never leased or expired, the renewal script only extends a lease still holding the
+ * expiration written by this provider, so a lease taken over by another process is never renewed.
  * @author Christophe
  *
  */
-public class RedisGeneratorIDProvider implements GeneratorIDProvider {
+public class RedisGeneratorIDProvider extends AbstractGeneratorIDProvider {
+
+	/**
+	 * KEYS[1] hash of the leases, ARGV[1] current time, ARGV[2] expiration of the new lease, ARGV[3] highest
+	 * generator ID. Returns the generator ID leased, -1 if none is available.
+	 */
+	public static final String LEASE_SCRIPT =
+			"local leases = redis.call('HGETALL', KEYS[1])\n"
+			+ "local now = tonumber(ARGV[1])\n"
+			+ "local taken = {}\n"
+			+ "for i = 1, #leases, 2 do\n"
+			+ "  local expiration = tonumber(leases[i + 1])\n"
+			+ "  if expiration == nil or expiration >= now then\n"
+			+ "    taken[leases[i]] = true\n"
+			+ "  end\n"
+			+ "end\n"
+			+ "for id = 0, tonumber(ARGV[3]) do\n"
+			+ "  if not taken[tostring(id)] then\n"
+			+ "    redis.call('HSET', KEYS[1], tostring(id), ARGV[2])\n"
+			+ "    return id\n"
+			+ "  end\n"
+			+ "end\n"
+			+ "return -1\n";
+
+	/**
+	 * KEYS[1] hash of the leases, ARGV[1] generator ID, ARGV[2] expiration last written, ARGV[3] new expiration.
+	 * Returns 1 if the lease was extended, 0 if it is not owned anymore.
+	 */
+	public static final String RENEW_SCRIPT =
+			"if redis.call('HGET', KEYS[1], ARGV[1]) == ARGV[2] then\n"
+			+ "  redis.call('HSET', KEYS[1], ARGV[1], ARGV[3])\n"
+			+ "  return 1\n"
+			+ "end\n"
+			+ "return 0\n";
+
+	private static final String LEASE_SCRIPT_SHA = sha1(LEASE_SCRIPT);
+	private static final String RENEW_SCRIPT_SHA = sha1(RENEW_SCRIPT);
 
-	private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-	private int leaseExpirationTime;
-	private int maxLeaseRetries;
-	private int leaseRenewalFrequency;
 	private JedisPool jedisPool;
 	private String redisHost;
 	private int redisPort;
 	private String redisPassword;
 	
 	private String redisHashKey;
-	private Integer generatorID = null;
+	private int maxGeneratorId;
 
 	public RedisGeneratorIDProvider(RedisGeneratorIDConfiguration config){
-		if(config == null){
-			throw new IllegalArgumentException("config cannot be null");
-		}
+		super(config);
 		this.jedisPool = config.getJedisPool();
 		this.redisHashKey = config.getRedisHashKey();
-		this.leaseExpirationTime = config.getLeaseExpirationTime();
-		this.maxLeaseRetries = config.getMaxLeaseRetries();
-		this.leaseRenewalFrequency = config.getLeaseRenewalFrequency();
 		this.redisHost = config.getRedisHost();
 		this.redisPort = config.getRedisPort();
 		this.redisPassword = config.getRedisPassword();
+		this.maxGeneratorId = config.getMaxGeneratorId();
 	}
 	
-	public int getId() {
-		if(generatorID != null){
-			return generatorID;
-		} else {
-			return leaseNewId();
+	public int getMaxGeneratorId() {
+		return maxGeneratorId;
+	}
+
+	protected String getLeaseStore() {
+		return "Redis hash " + (redisHost != null ? redisHost + ":" + redisPort + "/" : "") + redisHashKey;
+	}
+
+	protected int leaseNewId(){
+		int tries = 0;
+		while(tries <= maxLeaseRetries){
+			tries++;
+			Jedis jedis = null;
+			boolean broken = false;
+			try {
+				jedis = getJedis();
+				long now = System.currentTimeMillis();
+				long expiration = now+leaseExpirationTime;
+				Object leased = evalScript(jedis, LEASE_SCRIPT, LEASE_SCRIPT_SHA, Arrays.asList(String.valueOf(now)
+						, String.valueOf(expiration), String.valueOf(maxGeneratorId)));
+				int leaseId = ((Long) leased).intValue();
+				if(leaseId != -1){
+					leaseExpirationWritten = expiration;
+				}
+				// the script is atomic: no generator ID available is not worth retrying
+				return leaseId;
+			} catch (JedisConnectionException e) {
+				broken = true;
+				leaseMetrics.recordAcquisitionError(e);
+			} catch (Exception e) {
+				leaseMetrics.recordAcquisitionError(e);
+				return -1;
+			} finally {
+				releaseJedis(jedis, broken);
+			}
+			leaseMetrics.recordAcquisitionRetry();
 		}
+	
+		return -1;
 	}
 	
-	private int leaseNewId(){
-		Jedis jedis;
-		if(jedisPool != null) {
-			jedis = jedisPool.getResource();
-		} else {
-			jedis = new Jedis(redisHost, redisPort);
-			if(redisPassword != null){
-				jedis.auth(redisPassword);
-			}
+	protected void renewLease() throws LeaseTakenOverException{
+		if(!extendLease(generatorID, leaseExpirationWritten, System.currentTimeMillis()+leaseExpirationTime)){
+			throw new LeaseTakenOverException("Lease of generator ID " + generatorID + " was taken over");
 		}
+	}
+	
+	protected boolean reclaimLease(int generatorId, long expirationWritten){
+		if(generatorId < 0 || generatorId > maxGeneratorId){
+			return false;
+		}
+		return extendLease(generatorId, expirationWritten, System.currentTimeMillis()+leaseExpirationTime);
+	}
+	
+	protected boolean releaseLease(int generatorId, long expirationWritten, long expiredTime){
+		return extendLease(generatorId, expirationWritten, expiredTime);
+	}
+	
+	/**
+	 * Sets the expiration of a lease, if it is still expirationWritten
+	 * @return true if the expiration was set, false if it was not expirationWritten anymore
+	 */
+	private boolean extendLease(int leaseId, long expirationWritten, long expiration){
+		Jedis jedis = getJedis();
+		boolean broken = false;
 		try {
-			int tries = 0;
-			while(tries <= maxLeaseRetries){
-				tries++;
-				long now = System.currentTimeMillis();
-				jedis.watch("redisHashKey");
-				Map<String, String> leasesAsString = jedis.hgetAll(redisHashKey);
-				SortedMap<Integer, Long> leases = getSortedLeases(leasesAsString);
-				
-				int leaseToBook=-1;
-				if(leases.size() == 0) {
-					// first lease
-					leaseToBook = 0;
-				} else {
-					for(Integer leaseId : leases.keySet()){
-						if(now > leases.get(leaseId)){
-							// this lease is expired
-							leaseToBook = leaseId;
-						}
-					}
-					
-					if(leaseToBook == -1){ // no expired lease was found
-						leaseToBook = leases.lastKey()+1;
-					}
-				}
-				
-				// booking the lease within a transaction (optimistic locking)
-				Transaction transaction = jedis.multi();
-				transaction.hset(redisHashKey, String.valueOf(leaseToBook), String.valueOf(now+leaseExpirationTime));
-				if(transaction.exec()!=null){
-					generatorID = leaseToBook;
-					
-					scheduleLeaseRenewal();
-					
-					return generatorID;
-				}
+			Object renewed = evalScript(jedis, RENEW_SCRIPT, RENEW_SCRIPT_SHA, Arrays.asList(String.valueOf(leaseId)
+					, String.valueOf(expirationWritten), String.valueOf(expiration)));
+			if(((Long) renewed).longValue() != 1){
+				return false;
 			}
-			
-		} catch (Exception e) {
-			e.printStackTrace();
+			leaseExpirationWritten = expiration;
+			return true;
+		} catch (JedisConnectionException e) {
+			broken = true;
+			throw e;
 		} finally {
-			if(jedisPool != null){
-				jedisPool.returnResource(jedis);
-			} else {
-				jedis.disconnect();
+			releaseJedis(jedis, broken);
+		}
+	}
+	
+	/**
+	 * Runs a script by its SHA1, and by its source if Redis does not have it cached yet
+	 */
+	private Object evalScript(Jedis jedis, String script, String sha, List<String> args){
+		List<String> keys = Collections.singletonList(redisHashKey);
+		try {
+			return jedis.evalsha(sha, keys, args);
+		} catch (JedisDataException e) {
+			if(e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")){
+				throw e;
 			}
+			return jedis.eval(script, keys, args);
 		}
+	}
 	
-		return -1;
+	private Jedis getJedis(){
+		if(jedisPool != null) {
+			return jedisPool.getResource();
+		}
+		Jedis jedis = new Jedis(redisHost, redisPort);
+		if(redisPassword != null){
+			jedis.auth(redisPassword);
+		}
+		return jedis;
 	}
 	
-	private void scheduleLeaseRenewal(){
-		scheduler.scheduleWithFixedDelay(new Runnable() {
-			
-			public void run() {
-				Jedis jedis;
-				if(jedisPool != null) {
-					jedis = jedisPool.getResource();
-				} else {
-					jedis = new Jedis(redisHost, redisPort);
-					if(redisPassword != null){
-						jedis.auth(redisPassword);
-					}
-				}
-				try {
-					jedis.hset(redisHashKey, String.valueOf(generatorID)
-							,  String.valueOf(System.currentTimeMillis()+leaseExpirationTime));
-				} catch (Exception e) {
-					// failed to renew lease
-				} finally {
-					if(jedisPool != null){
-						jedisPool.returnResource(jedis);
-					} else {
-						jedis.disconnect();
-					}
-				}
-				
-			}
-		}, leaseRenewalFrequency, leaseRenewalFrequency, TimeUnit.SECONDS);
+	/**
+	 * @param broken true if the connection failed, so that the pool does not hand it out again
+	 */
+	private void releaseJedis(Jedis jedis, boolean broken){
+		if(jedis == null){
+			return;
+		}
+		if(jedisPool == null){
+			jedis.disconnect();
+		} else if(broken){
+			jedisPool.returnBrokenResource(jedis);
+		} else {
+			jedisPool.returnResource(jedis);
+		}
 	}
 	
-	private SortedMap<Integer, Long> getSortedLeases(Map<String, String> leasesAsString){
-		SortedMap<Integer, Long> leases = new TreeMap<Integer, Long>();
-		for(Entry<String, String> leaseEntry : leasesAsString.entrySet()){
-			try {
-				leases.put(Integer.parseInt(leaseEntry.getKey()), Long.parseLong(leaseEntry.getValue()));
-			} catch (NumberFormatException e){
-				// ignore wrong entry in the HASH
+	private static String sha1(String script){
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(script.getBytes(Charset.forName("UTF-8")));
+			StringBuilder sha = new StringBuilder();
+			for(byte b : digest){
+				sha.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
 			}
+			return sha.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available", e);
 		}
-		return leases;
 	}
 
 }
@@ -12,6 +12,7 @@ public class DynamoGeneratorIDConfiguration implements GeneratorIDConfiguration
 	private int leaseExpirationTime = 3600000; // 1 hour
 	private int maxLeaseRetries = 10; // 10 times
 	private int leaseRenewalFrequency = 5; // 5 seconds
+	private String leaseCacheFile = null; // no cache
 	
 	/**
 	 * Dynamo specific configurations
@@ -21,6 +22,7 @@ public class DynamoGeneratorIDConfiguration implements GeneratorIDConfiguration
 	private String dynamoTable; 
 	private String dynamoHashKeyName = "id";
 	private String dynamoLeaseExpirationAttributeName = "exp";
+	private int maxGeneratorId = 511; // 9 bits, as in the default IdLayout
 
 	/**
 	 * Constructor with a DynamoDB client instance
@@ -64,6 +66,19 @@ public class DynamoGeneratorIDConfiguration implements GeneratorIDConfiguration
 		if(properties.get("dynamoLeaseExpirationAttributeName") != null){
 			dynamoLeaseExpirationAttributeName = properties.getProperty("dynamoLeaseExpirationAttributeName");
 		}
+		if(properties.get("leaseCacheFile") != null){
+			leaseCacheFile = properties.getProperty("leaseCacheFile");
+		}
+		if(properties.get("maxGeneratorId") != null){
+			try {
+				maxGeneratorId = Integer.parseInt(properties.getProperty("maxGeneratorId"));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("maxGeneratorId has a wrong format (Expecting integer)");
+			}
+			if(maxGeneratorId < 0){
+				throw new IllegalArgumentException("maxGeneratorId cannot be negative");
+			}
+		}
 		
 		this.dynamoClient = dynamoClient;
 		this.dynamoTable = properties.getProperty("dynamoTable");
@@ -81,6 +96,10 @@ public class DynamoGeneratorIDConfiguration implements GeneratorIDConfiguration
 		return leaseRenewalFrequency;
 	}
 
+	public String getLeaseCacheFile() {
+		return leaseCacheFile;
+	}
+
 	
 	public AmazonDynamoDB getDynamoClient(){
 		return dynamoClient;
@@ -98,6 +117,14 @@ public class DynamoGeneratorIDConfiguration implements GeneratorIDConfiguration
 	public String getDynamoLeaseExpirationAttributeName() {
 		return dynamoLeaseExpirationAttributeName;
 	}
+
+	/**
+	 * 
+	 * @return highest generator ID leased, the generator IDs leased being between 0 and maxGeneratorId
+	 */
+	public int getMaxGeneratorId() {
+		return maxGeneratorId;
+	}
 	
 	
 
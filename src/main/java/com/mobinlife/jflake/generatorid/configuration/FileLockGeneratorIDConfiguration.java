@@ -0,0 +1,122 @@
+package com.mobinlife.jflake.generatorid.configuration;
+
+import java.util.Properties;
+
+/**
+ * Configuration of the file lock provider. Needs lockFile, the path of the file shared by the processes of the host,
+ * and optionally firstGeneratorId and maxGeneratorId, the range of generator IDs handed out (0 to 511 by default).
+ * File locks do not expire: the lease settings do not apply.
+ * With blockLease set to true, the generator IDs are those of a block leased by a GeneratorIDBlock of another JVM,
+ * which publishes the lease of the block in the lock file: they are only handed out while that lease is valid.
+ *
+ */
+public class FileLockGeneratorIDConfiguration implements GeneratorIDConfiguration {
+
+	private String lockFile;
+	private int firstGeneratorId = 0;
+	private int maxGeneratorId = 511; // 9 bits, as in the default IdLayout
+	private boolean blockLease = false;
+
+	public FileLockGeneratorIDConfiguration(Properties properties){
+		if(properties.get("lockFile") == null){
+			throw new IllegalArgumentException("lockFile cannot be null");
+		}
+		if(properties.get("firstGeneratorId") != null){
+			try {
+				firstGeneratorId = Integer.parseInt(properties.getProperty("firstGeneratorId"));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("firstGeneratorId has a wrong format (Expecting integer)");
+			}
+		}
+		if(properties.get("maxGeneratorId") != null){
+			try {
+				maxGeneratorId = Integer.parseInt(properties.getProperty("maxGeneratorId"));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("maxGeneratorId has a wrong format (Expecting integer)");
+			}
+		}
+		if(firstGeneratorId < 0 || maxGeneratorId < firstGeneratorId){
+			throw new IllegalArgumentException("Generator IDs must be between 0 <= firstGeneratorId <= maxGeneratorId");
+		}
+		if(properties.get("blockLease") != null){
+			blockLease = Boolean.parseBoolean(properties.getProperty("blockLease"));
+		}
+		this.lockFile = properties.getProperty("lockFile");
+	}
+
+	/**
+	 * Configuration handing out the generator IDs firstGeneratorId to maxGeneratorId, e.g. a block leased by a
+	 * GeneratorIDBlock
+	 * @param lockFile path of the file shared by the processes of the host
+	 * @param firstGeneratorId
+	 * @param maxGeneratorId
+	 * @param blockLease true if the generator IDs are only valid while the lease of the block published in the lock
+	 * file is
+	 */
+	public FileLockGeneratorIDConfiguration(String lockFile, int firstGeneratorId, int maxGeneratorId
+			, boolean blockLease){
+		if(lockFile == null){
+			throw new IllegalArgumentException("lockFile cannot be null");
+		}
+		if(firstGeneratorId < 0 || maxGeneratorId < firstGeneratorId){
+			throw new IllegalArgumentException("Generator IDs must be between 0 <= firstGeneratorId <= maxGeneratorId");
+		}
+		this.lockFile = lockFile;
+		this.firstGeneratorId = firstGeneratorId;
+		this.maxGeneratorId = maxGeneratorId;
+		this.blockLease = blockLease;
+	}
+
+	/**
+	 * 
+	 * @return 0, file locks do not expire
+	 */
+	public int getLeaseExpirationTime() {
+		return 0;
+	}
+
+	/**
+	 * 
+	 * @return 0, every generator ID is tried once
+	 */
+	public int getMaxLeaseRetries() {
+		return 0;
+	}
+
+	/**
+	 * 
+	 * @return 0, file locks are not renewed
+	 */
+	public int getLeaseRenewalFrequency() {
+		return 0;
+	}
+
+	/**
+	 * 
+	 * @return null, a generator ID locked is released when its process ends
+	 */
+	public String getLeaseCacheFile() {
+		return null;
+	}
+
+	public String getLockFile() {
+		return lockFile;
+	}
+
+	public int getFirstGeneratorId() {
+		return firstGeneratorId;
+	}
+
+	public int getMaxGeneratorId() {
+		return maxGeneratorId;
+	}
+
+	/**
+	 *
+	 * @return true if the generator IDs belong to a block, whose lease is published in the lock file
+	 */
+	public boolean isBlockLease() {
+		return blockLease;
+	}
+
+}
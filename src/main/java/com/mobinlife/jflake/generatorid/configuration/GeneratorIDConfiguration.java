@@ -24,4 +24,12 @@ public interface GeneratorIDConfiguration {
 	 * @return lease renewal frequency in seconds
 	 */
 	public int getLeaseRenewalFrequency();
+	
+	/**
+	 * 
+	 * @return path of the file caching the lease across restarts, null if the lease is not cached (the default)
+	 */
+	public default String getLeaseCacheFile() {
+		return null;
+	}
 }
@@ -12,6 +12,7 @@ public class RedisGeneratorIDConfiguration implements GeneratorIDConfiguration {
 	private int leaseExpirationTime = 3600000; // 1 hour
 	private int maxLeaseRetries = 10; // 10 times
 	private int leaseRenewalFrequency = 5; // 5 seconds
+	private String leaseCacheFile = null; // no cache
 	
 	/**
 	 * Redis specific configurations
@@ -22,6 +23,7 @@ public class RedisGeneratorIDConfiguration implements GeneratorIDConfiguration {
 	private String redisPassword = null;
 	
 	private String redisHashKey; 
+	private int maxGeneratorId = 511; // 9 bits, as in the default IdLayout
 
 	/**
 	 * Constructor with a JedisPool instance if the application uses one
@@ -59,6 +61,20 @@ public class RedisGeneratorIDConfiguration implements GeneratorIDConfiguration {
 				throw new IllegalArgumentException("leaseRenewalFrequency has a wrong format (Expecting integer)");
 			}
 		}
+
+		if(properties.get("leaseCacheFile") != null){
+			leaseCacheFile = properties.getProperty("leaseCacheFile");
+		}
+		if(properties.get("maxGeneratorId") != null){
+			try {
+				maxGeneratorId = Integer.parseInt(properties.getProperty("maxGeneratorId"));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("maxGeneratorId has a wrong format (Expecting integer)");
+			}
+			if(maxGeneratorId < 0){
+				throw new IllegalArgumentException("maxGeneratorId cannot be negative");
+			}
+		}
 		
 		this.jedisPool = jedisPool;
 		this.redisHashKey = properties.getProperty("redisHashKey");
@@ -101,6 +117,20 @@ public class RedisGeneratorIDConfiguration implements GeneratorIDConfiguration {
 				throw new IllegalArgumentException("leaseRenewalFrequency has a wrong format (Expecting integer)");
 			}
 		}
+
+		if(properties.get("leaseCacheFile") != null){
+			leaseCacheFile = properties.getProperty("leaseCacheFile");
+		}
+		if(properties.get("maxGeneratorId") != null){
+			try {
+				maxGeneratorId = Integer.parseInt(properties.getProperty("maxGeneratorId"));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("maxGeneratorId has a wrong format (Expecting integer)");
+			}
+			if(maxGeneratorId < 0){
+				throw new IllegalArgumentException("maxGeneratorId cannot be negative");
+			}
+		}
 		
 		
 		this.redisHashKey = properties.getProperty("redisHashKey");
@@ -127,6 +157,10 @@ public class RedisGeneratorIDConfiguration implements GeneratorIDConfiguration {
 		return leaseRenewalFrequency;
 	}
 
+	public String getLeaseCacheFile() {
+		return leaseCacheFile;
+	}
+
 	public JedisPool getJedisPool() {
 		return jedisPool;
 	}
@@ -146,6 +180,14 @@ public class RedisGeneratorIDConfiguration implements GeneratorIDConfiguration {
 	public String getRedisHashKey() {
 		return redisHashKey;
 	}
+
+	/**
+	 * 
+	 * @return highest generator ID leased, the generator IDs leased being between 0 and maxGeneratorId
+	 */
+	public int getMaxGeneratorId() {
+		return maxGeneratorId;
+	}
 	
 	
 
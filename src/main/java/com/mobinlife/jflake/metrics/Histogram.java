@@ -0,0 +1,102 @@
+package com.mobinlife.jflake.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of non-negative long values with a bounded relative error.
+ * Values are counted in log-linear buckets: every power of two range is split in 2^(precisionBits-1) buckets, so the
+ * value reported for a bucket is within 2^(1-precisionBits) of the values recorded in it (about 3% with the default
+ * precision of 6 bits).
+ * Counts are striped across several arrays indexed by thread, so that concurrent writers rarely touch the same cache
+ * lines; recording is a couple of shifts and one atomic increment.
+ *
+ */
+public class Histogram {
+
+	private static final int STRIPES = stripes();
+
+	private final int precisionBits;
+	private final int subBucketCount;
+	private final int subBucketHalfCount;
+	private final int bucketCount;
+	private final AtomicLongArray[] stripes;
+
+	public Histogram(){
+		this(6);
+	}
+
+	/**
+	 *
+	 * @param precisionBits number of significant bits kept for each value, between 2 and 16
+	 */
+	public Histogram(int precisionBits){
+		if(precisionBits < 2 || precisionBits > 16){
+			throw new IllegalArgumentException("precisionBits must be between 2 and 16");
+		}
+		this.precisionBits = precisionBits;
+		this.subBucketCount = 1 << precisionBits;
+		this.subBucketHalfCount = subBucketCount >> 1;
+		this.bucketCount = (65 - precisionBits) * subBucketHalfCount;
+		this.stripes = new AtomicLongArray[STRIPES];
+		for(int i = 0; i < STRIPES; i++){
+			stripes[i] = new AtomicLongArray(bucketCount);
+		}
+	}
+
+	/**
+	 * Records a value, negative values are recorded as 0
+	 * @param value
+	 */
+	public void record(long value){
+		stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)].incrementAndGet(indexOf(value < 0 ? 0 : value));
+	}
+
+	public void reset(){
+		for(AtomicLongArray stripe : stripes){
+			for(int i = 0; i < bucketCount; i++){
+				stripe.set(i, 0);
+			}
+		}
+	}
+
+	/**
+	 * Concurrent recordings may or may not be part of the snapshot
+	 * @return counts recorded so far
+	 */
+	public HistogramSnapshot snapshot(){
+		long[] counts = new long[bucketCount];
+		for(AtomicLongArray stripe : stripes){
+			for(int i = 0; i < bucketCount; i++){
+				counts[i] += stripe.get(i);
+			}
+		}
+		return new HistogramSnapshot(this, counts);
+	}
+
+	int indexOf(long value){
+		if(value < subBucketCount){
+			return (int) value;
+		}
+		int shift = 64 - Long.numberOfLeadingZeros(value) - precisionBits;
+		return shift * subBucketHalfCount + (int) (value >>> shift);
+	}
+
+	/**
+	 *
+	 * @return highest value counted in the bucket
+	 */
+	long highestValueOf(int index){
+		if(index < subBucketCount){
+			return index;
+		}
+		int shift = index / subBucketHalfCount - 1;
+		long lowest = ((long) (index - shift * subBucketHalfCount)) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	private static int stripes(){
+		int processors = Runtime.getRuntime().availableProcessors();
+		return Integer.highestOneBit(Math.max(1, Math.min(processors, 64)) * 2 - 1);
+	}
+
+}
@@ -0,0 +1,83 @@
+package com.mobinlife.jflake.metrics;
+
+/**
+ * Immutable copy of the counts of a Histogram
+ *
+ */
+public class HistogramSnapshot {
+
+	private final Histogram histogram;
+	private final long[] counts;
+	private final long count;
+	private final long max;
+	private final double mean;
+
+	HistogramSnapshot(Histogram histogram, long[] counts){
+		this.histogram = histogram;
+		this.counts = counts;
+		long total = 0;
+		long highest = 0;
+		double sum = 0;
+		for(int i = 0; i < counts.length; i++){
+			if(counts[i] != 0){
+				long value = histogram.highestValueOf(i);
+				total += counts[i];
+				highest = value;
+				sum += (double) value * counts[i];
+			}
+		}
+		this.count = total;
+		this.max = highest;
+		this.mean = total == 0 ? 0 : sum / total;
+	}
+
+	/**
+	 *
+	 * @return number of values recorded
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @return largest value recorded, rounded up to its bucket
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 *
+	 * @param percentile between 0 and 100
+	 * @return smallest value v such that percentile % of the values recorded are lower or equal to v, 0 if empty
+	 */
+	public long getPercentile(double percentile){
+		if(percentile < 0 || percentile > 100){
+			throw new IllegalArgumentException("percentile must be between 0 and 100");
+		}
+		if(count == 0){
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		long cumulated = 0;
+		for(int i = 0; i < counts.length; i++){
+			cumulated += counts[i];
+			if(cumulated >= rank){
+				return histogram.highestValueOf(i);
+			}
+		}
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", mean=" + Math.round(mean) + ", p50=" + getPercentile(50) + ", p99="
+				+ getPercentile(99) + ", p99.9=" + getPercentile(99.9) + ", max=" + max;
+	}
+
+}
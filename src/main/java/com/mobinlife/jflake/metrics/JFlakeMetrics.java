@@ -0,0 +1,112 @@
+package com.mobinlife.jflake.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import com.mobinlife.jflake.time.ClockRegressionListener;
+
+/**
+ * Counters of a JFlake generator, passed to it through JFlakeConfiguration.withMetrics().
+ * Counters are striped (LongAdder) and the sequence high-water mark is only recorded when a millisecond ends,
+ * so the cost on the ID generation path is one uncontended increment per call.
+ * Values can be pulled with snapshot() or read through JMX once registered with JmxRegistration.
+ *
+ */
+public class JFlakeMetrics implements JFlakeMetricsMXBean, ClockRegressionListener {
+
+	static final LongBinaryOperator MAX = new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	private final LongAdder idsIssued = new LongAdder();
+	private final LongAdder exhaustionEvents = new LongAdder();
+	private final LongAdder clockRegressions = new LongAdder();
+	private final LongAdder waits = new LongAdder();
+	private final Histogram waitTimeMicros = new Histogram();
+	private final Histogram sequenceHighWater = new Histogram();
+	private final LongAccumulator sequenceHighWaterMax = new LongAccumulator(MAX, 0);
+
+	public void recordIds(int count){
+		idsIssued.add(count);
+	}
+
+	/**
+	 * A call found the sequence of the current millisecond exhausted, recorded once per call however long it waits
+	 */
+	public void recordExhaustion(){
+		exhaustionEvents.increment();
+	}
+
+	/**
+	 * A caller waited for the next millisecond
+	 * @param waitNanos time waited
+	 */
+	public void recordWait(long waitNanos){
+		waits.increment();
+		waitTimeMicros.record(waitNanos / 1000);
+	}
+
+	/**
+	 * A millisecond ended
+	 * @param highestSequence last sequence number issued in that millisecond
+	 */
+	public void recordSequenceHighWater(long highestSequence){
+		sequenceHighWater.record(highestSequence);
+		sequenceHighWaterMax.accumulate(highestSequence);
+	}
+
+	public void onClockRegression(long regressionMillis){
+		clockRegressions.increment();
+	}
+
+	public JFlakeMetricsSnapshot snapshot(){
+		return new JFlakeMetricsSnapshot(idsIssued.sum(), exhaustionEvents.sum(), clockRegressions.sum(), waits.sum()
+				, waitTimeMicros.snapshot(), sequenceHighWater.snapshot(), sequenceHighWaterMax.get());
+	}
+
+	public long getIdsIssued() {
+		return idsIssued.sum();
+	}
+
+	public long getExhaustionEvents() {
+		return exhaustionEvents.sum();
+	}
+
+	public long getClockRegressions() {
+		return clockRegressions.sum();
+	}
+
+	public long getWaits() {
+		return waits.sum();
+	}
+
+	public long getWaitTimeP99Micros() {
+		return waitTimeMicros.snapshot().getPercentile(99);
+	}
+
+	public long getSequenceHighWaterMax() {
+		return sequenceHighWaterMax.get();
+	}
+
+	public long getSequenceHighWaterP50() {
+		return sequenceHighWater.snapshot().getPercentile(50);
+	}
+
+	public long getSequenceHighWaterP99() {
+		return sequenceHighWater.snapshot().getPercentile(99);
+	}
+
+	public void reset() {
+		idsIssued.reset();
+		exhaustionEvents.reset();
+		clockRegressions.reset();
+		waits.reset();
+		waitTimeMicros.reset();
+		sequenceHighWater.reset();
+		sequenceHighWaterMax.reset();
+	}
+
+}
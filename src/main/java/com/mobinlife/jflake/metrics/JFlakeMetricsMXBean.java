@@ -0,0 +1,27 @@
+package com.mobinlife.jflake.metrics;
+
+/**
+ * JMX view of JFlakeMetrics
+ *
+ */
+public interface JFlakeMetricsMXBean {
+
+	public long getIdsIssued();
+
+	public long getExhaustionEvents();
+
+	public long getClockRegressions();
+
+	public long getWaits();
+
+	public long getWaitTimeP99Micros();
+
+	public long getSequenceHighWaterMax();
+
+	public long getSequenceHighWaterP50();
+
+	public long getSequenceHighWaterP99();
+
+	public void reset();
+
+}
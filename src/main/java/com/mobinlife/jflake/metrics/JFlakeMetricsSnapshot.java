@@ -0,0 +1,79 @@
+package com.mobinlife.jflake.metrics;
+
+/**
+ * Values of JFlakeMetrics at a point in time
+ *
+ */
+public class JFlakeMetricsSnapshot {
+
+	private final long idsIssued;
+	private final long exhaustionEvents;
+	private final long clockRegressions;
+	private final long waits;
+	private final HistogramSnapshot waitTimeMicros;
+	private final HistogramSnapshot sequenceHighWater;
+	private final long sequenceHighWaterMax;
+
+	JFlakeMetricsSnapshot(long idsIssued, long exhaustionEvents, long clockRegressions, long waits
+			, HistogramSnapshot waitTimeMicros, HistogramSnapshot sequenceHighWater, long sequenceHighWaterMax){
+		this.idsIssued = idsIssued;
+		this.exhaustionEvents = exhaustionEvents;
+		this.clockRegressions = clockRegressions;
+		this.waits = waits;
+		this.waitTimeMicros = waitTimeMicros;
+		this.sequenceHighWater = sequenceHighWater;
+		this.sequenceHighWaterMax = sequenceHighWaterMax;
+	}
+
+	public long getIdsIssued() {
+		return idsIssued;
+	}
+
+	/**
+	 *
+	 * @return number of times the sequence of a millisecond was found exhausted
+	 */
+	public long getExhaustionEvents() {
+		return exhaustionEvents;
+	}
+
+	/**
+	 *
+	 * @return clock regressions reported by a ClockRegressionGuard time source
+	 */
+	public long getClockRegressions() {
+		return clockRegressions;
+	}
+
+	/**
+	 *
+	 * @return number of times a caller waited for the next millisecond
+	 */
+	public long getWaits() {
+		return waits;
+	}
+
+	public HistogramSnapshot getWaitTimeMicros() {
+		return waitTimeMicros;
+	}
+
+	/**
+	 *
+	 * @return distribution of the last sequence number issued in each millisecond
+	 */
+	public HistogramSnapshot getSequenceHighWater() {
+		return sequenceHighWater;
+	}
+
+	public long getSequenceHighWaterMax() {
+		return sequenceHighWaterMax;
+	}
+
+	@Override
+	public String toString() {
+		return "idsIssued=" + idsIssued + ", exhaustionEvents=" + exhaustionEvents + ", clockRegressions="
+				+ clockRegressions + ", waits=" + waits + ", waitTimeMicros=[" + waitTimeMicros
+				+ "], sequenceHighWater=[" + sequenceHighWater + "]";
+	}
+
+}
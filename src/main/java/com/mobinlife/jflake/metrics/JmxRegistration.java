@@ -0,0 +1,63 @@
+package com.mobinlife.jflake.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers metrics in the platform MBean server, under the com.mobinlife.jflake domain
+ *
+ */
+public class JmxRegistration {
+
+	public static final String DOMAIN = "com.mobinlife.jflake";
+
+	private JmxRegistration(){
+	}
+
+	/**
+	 * @param metrics generator metrics
+	 * @param name name of the generator, e.g. its generator ID
+	 * @return the name registered, to unregister it later
+	 */
+	public static ObjectName register(JFlakeMetrics metrics, String name){
+		return register(metrics, "JFlake", name);
+	}
+
+	/**
+	 * @param metrics lease provider metrics
+	 * @param name name of the provider
+	 * @return the name registered, to unregister it later
+	 */
+	public static ObjectName register(LeaseMetrics metrics, String name){
+		return register(metrics, "GeneratorIDProvider", name);
+	}
+
+	public static void unregister(ObjectName objectName){
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if(server.isRegistered(objectName)){
+				server.unregisterMBean(objectName);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException("Could not unregister " + objectName, e);
+		}
+	}
+
+	private static ObjectName register(Object mbean, String type, String name){
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+			if(server.isRegistered(objectName)){
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(mbean, objectName);
+			return objectName;
+		} catch (JMException e) {
+			throw new IllegalStateException("Could not register " + type + " metrics " + name, e);
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+package com.mobinlife.jflake.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a generator ID lease provider: lease acquisitions (latency, retries, failures) and renewals.
+ * Every provider owns one, available through getLeaseMetrics().
+ *
+ */
+public class LeaseMetrics implements LeaseMetricsMXBean {
+
+	private final LongAdder acquisitions = new LongAdder();
+	private final LongAdder acquisitionFailures = new LongAdder();
+	private final LongAdder acquisitionRetries = new LongAdder();
+	private final LongAdder acquisitionErrors = new LongAdder();
+	private volatile String lastAcquisitionError = null;
+	private final Histogram acquisitionLatencyMillis = new Histogram();
+	private final LongAdder renewals = new LongAdder();
+	private final LongAdder renewalFailures = new LongAdder();
+	private final AtomicLong consecutiveRenewalFailures = new AtomicLong();
+	private volatile String lastRenewalError = null;
+
+	/**
+	 * A lease acquisition ended
+	 * @param success true if a generator ID was leased
+	 * @param latencyNanos duration of the acquisition, retries included
+	 */
+	public void recordAcquisition(boolean success, long latencyNanos){
+		if(success){
+			acquisitions.increment();
+		} else {
+			acquisitionFailures.increment();
+		}
+		acquisitionLatencyMillis.record(latencyNanos / 1000000);
+	}
+
+	/**
+	 * An attempt to lease a generator ID failed and will be retried (e.g. lost a race on a conditional write)
+	 */
+	public void recordAcquisitionRetry(){
+		acquisitionRetries.increment();
+	}
+
+	/**
+	 * An attempt to lease a generator ID failed on an unexpected datastore error
+	 * @param e
+	 */
+	public void recordAcquisitionError(Exception e){
+		acquisitionErrors.increment();
+		lastAcquisitionError = String.valueOf(e);
+	}
+
+	public void recordRenewal(){
+		renewals.increment();
+		consecutiveRenewalFailures.set(0);
+	}
+
+	public void recordRenewalFailure(Exception e){
+		renewalFailures.increment();
+		consecutiveRenewalFailures.incrementAndGet();
+		lastRenewalError = String.valueOf(e);
+	}
+
+	public LeaseMetricsSnapshot snapshot(){
+		return new LeaseMetricsSnapshot(acquisitions.sum(), acquisitionFailures.sum(), acquisitionRetries.sum()
+				, acquisitionErrors.sum(), lastAcquisitionError, acquisitionLatencyMillis.snapshot(), renewals.sum()
+				, renewalFailures.sum(), consecutiveRenewalFailures.get(), lastRenewalError);
+	}
+
+	public long getAcquisitions() {
+		return acquisitions.sum();
+	}
+
+	public long getAcquisitionFailures() {
+		return acquisitionFailures.sum();
+	}
+
+	public long getAcquisitionRetries() {
+		return acquisitionRetries.sum();
+	}
+
+	public long getAcquisitionErrors() {
+		return acquisitionErrors.sum();
+	}
+
+	public String getLastAcquisitionError() {
+		return lastAcquisitionError;
+	}
+
+	public long getAcquisitionLatencyP50Millis() {
+		return acquisitionLatencyMillis.snapshot().getPercentile(50);
+	}
+
+	public long getAcquisitionLatencyP99Millis() {
+		return acquisitionLatencyMillis.snapshot().getPercentile(99);
+	}
+
+	public long getRenewals() {
+		return renewals.sum();
+	}
+
+	public long getRenewalFailures() {
+		return renewalFailures.sum();
+	}
+
+	public long getConsecutiveRenewalFailures() {
+		return consecutiveRenewalFailures.get();
+	}
+
+	public String getLastRenewalError() {
+		return lastRenewalError;
+	}
+
+	public void reset() {
+		acquisitions.reset();
+		acquisitionFailures.reset();
+		acquisitionRetries.reset();
+		acquisitionErrors.reset();
+		lastAcquisitionError = null;
+		acquisitionLatencyMillis.reset();
+		renewals.reset();
+		renewalFailures.reset();
+		consecutiveRenewalFailures.set(0);
+		lastRenewalError = null;
+	}
+
+}
@@ -0,0 +1,33 @@
+package com.mobinlife.jflake.metrics;
+
+/**
+ * JMX view of LeaseMetrics
+ *
+ */
+public interface LeaseMetricsMXBean {
+
+	public long getAcquisitions();
+
+	public long getAcquisitionFailures();
+
+	public long getAcquisitionRetries();
+
+	public long getAcquisitionErrors();
+
+	public String getLastAcquisitionError();
+
+	public long getAcquisitionLatencyP50Millis();
+
+	public long getAcquisitionLatencyP99Millis();
+
+	public long getRenewals();
+
+	public long getRenewalFailures();
+
+	public long getConsecutiveRenewalFailures();
+
+	public String getLastRenewalError();
+
+	public void reset();
+
+}
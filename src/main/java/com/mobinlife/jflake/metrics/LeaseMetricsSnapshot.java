@@ -0,0 +1,92 @@
+package com.mobinlife.jflake.metrics;
+
+/**
+ * Values of LeaseMetrics at a point in time
+ *
+ */
+public class LeaseMetricsSnapshot {
+
+	private final long acquisitions;
+	private final long acquisitionFailures;
+	private final long acquisitionRetries;
+	private final long acquisitionErrors;
+	private final String lastAcquisitionError;
+	private final HistogramSnapshot acquisitionLatencyMillis;
+	private final long renewals;
+	private final long renewalFailures;
+	private final long consecutiveRenewalFailures;
+	private final String lastRenewalError;
+
+	LeaseMetricsSnapshot(long acquisitions, long acquisitionFailures, long acquisitionRetries
+			, long acquisitionErrors, String lastAcquisitionError, HistogramSnapshot acquisitionLatencyMillis, long renewals, long renewalFailures
+			, long consecutiveRenewalFailures, String lastRenewalError){
+		this.acquisitions = acquisitions;
+		this.acquisitionFailures = acquisitionFailures;
+		this.acquisitionRetries = acquisitionRetries;
+		this.acquisitionErrors = acquisitionErrors;
+		this.lastAcquisitionError = lastAcquisitionError;
+		this.acquisitionLatencyMillis = acquisitionLatencyMillis;
+		this.renewals = renewals;
+		this.renewalFailures = renewalFailures;
+		this.consecutiveRenewalFailures = consecutiveRenewalFailures;
+		this.lastRenewalError = lastRenewalError;
+	}
+
+	public long getAcquisitions() {
+		return acquisitions;
+	}
+
+	public long getAcquisitionFailures() {
+		return acquisitionFailures;
+	}
+
+	public long getAcquisitionRetries() {
+		return acquisitionRetries;
+	}
+
+	/**
+	 *
+	 * @return lease attempts failed on an unexpected datastore error
+	 */
+	public long getAcquisitionErrors() {
+		return acquisitionErrors;
+	}
+
+	public String getLastAcquisitionError() {
+		return lastAcquisitionError;
+	}
+
+	public HistogramSnapshot getAcquisitionLatencyMillis() {
+		return acquisitionLatencyMillis;
+	}
+
+	public long getRenewals() {
+		return renewals;
+	}
+
+	public long getRenewalFailures() {
+		return renewalFailures;
+	}
+
+	/**
+	 *
+	 * @return renewal failures since the last successful renewal
+	 */
+	public long getConsecutiveRenewalFailures() {
+		return consecutiveRenewalFailures;
+	}
+
+	public String getLastRenewalError() {
+		return lastRenewalError;
+	}
+
+	@Override
+	public String toString() {
+		return "acquisitions=" + acquisitions + ", acquisitionFailures=" + acquisitionFailures
+				+ ", acquisitionRetries=" + acquisitionRetries + ", acquisitionErrors=" + acquisitionErrors
+				+ ", lastAcquisitionError=" + lastAcquisitionError + ", acquisitionLatencyMillis=["
+				+ acquisitionLatencyMillis + "], renewals=" + renewals + ", renewalFailures=" + renewalFailures
+				+ ", lastRenewalError=" + lastRenewalError;
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.mobinlife.jflake.time;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Coarse time source: a background daemon thread reads the underlying time source every tick and publishes the
+ * value in a volatile field, so reading the time is a single volatile read.
+ * The time returned can be late by up to one tick; it never goes backward, even if the underlying source does.
+ *
+ */
+public class CachedTimeSource implements TimeSource {
+
+	private final TimeSource timeSource;
+	private final long tickNanos;
+	private final Thread ticker;
+	private volatile long currentTimeMillis;
+	private volatile boolean running = true;
+
+	/**
+	 * Caches the wall clock, refreshed every millisecond
+	 */
+	public CachedTimeSource(){
+		this(SystemTimeSource.INSTANCE, 1);
+	}
+
+	/**
+	 *
+	 * @param timeSource underlying time source
+	 * @param tickMillis refresh period in ms
+	 */
+	public CachedTimeSource(TimeSource timeSource, long tickMillis){
+		if(timeSource == null){
+			throw new IllegalArgumentException("timeSource cannot be null");
+		}
+		if(tickMillis <= 0){
+			throw new IllegalArgumentException("tickMillis must be positive");
+		}
+		this.timeSource = timeSource;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.currentTimeMillis = timeSource.currentTimeMillis();
+
+		this.ticker = new Thread(new Runnable() {
+			public void run() {
+				while(running){
+					long now = CachedTimeSource.this.timeSource.currentTimeMillis();
+					if(now > currentTimeMillis){
+						currentTimeMillis = now;
+					}
+					LockSupport.parkNanos(tickNanos);
+				}
+			}
+		}, "jflake-cached-time-source");
+		this.ticker.setDaemon(true);
+		this.ticker.start();
+	}
+
+	public long currentTimeMillis() {
+		return currentTimeMillis;
+	}
+
+	/**
+	 * Stops the background thread. The time returned is frozen afterwards
+	 */
+	public void stop(){
+		running = false;
+		LockSupport.unpark(ticker);
+	}
+
+}
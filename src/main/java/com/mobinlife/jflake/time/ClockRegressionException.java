@@ -0,0 +1,26 @@
+package com.mobinlife.jflake.time;
+
+/**
+ * Thrown by ClockRegressionGuard when the clock went backward further than the tolerated regression
+ *
+ */
+public class ClockRegressionException extends IllegalStateException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long regression;
+
+	public ClockRegressionException(long regression){
+		super("Clock moved backward by " + regression + "ms");
+		this.regression = regression;
+	}
+
+	/**
+	 *
+	 * @return how far the clock went backward, in ms
+	 */
+	public long getRegression() {
+		return regression;
+	}
+
+}
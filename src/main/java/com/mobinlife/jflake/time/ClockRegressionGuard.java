@@ -0,0 +1,96 @@
+package com.mobinlife.jflake.time;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Time source wrapper detecting clock regressions (the underlying time going backward, e.g. after an NTP step).
+ * A regression up to maxWaitMillis is absorbed by waiting for the clock to catch up with the latest time returned;
+ * a larger one makes currentTimeMillis() throw a ClockRegressionException.
+ * Either way the time returned never goes backward, so timestamps are never reused.
+ * A regression is counted, and reported to the listeners, once however many calls see it: the next one is only
+ * reported once the clock has passed the latest time returned before it.
+ *
+ */
+public class ClockRegressionGuard implements TimeSource {
+
+	private final TimeSource timeSource;
+	private final long maxWaitMillis;
+	private final AtomicLong latest = new AtomicLong(Long.MIN_VALUE);
+	// latest time returned before the last regression reported
+	private final AtomicLong reported = new AtomicLong(Long.MIN_VALUE);
+	private final AtomicLong regressionCount = new AtomicLong();
+	private final CopyOnWriteArrayList<ClockRegressionListener> listeners = new CopyOnWriteArrayList<ClockRegressionListener>();
+
+	/**
+	 * Guards the wall clock
+	 * @param maxWaitMillis largest regression absorbed by waiting, 0 to always fail
+	 */
+	public ClockRegressionGuard(long maxWaitMillis){
+		this(SystemTimeSource.INSTANCE, maxWaitMillis);
+	}
+
+	/**
+	 *
+	 * @param timeSource guarded time source
+	 * @param maxWaitMillis largest regression absorbed by waiting, 0 to always fail
+	 */
+	public ClockRegressionGuard(TimeSource timeSource, long maxWaitMillis){
+		if(timeSource == null){
+			throw new IllegalArgumentException("timeSource cannot be null");
+		}
+		if(maxWaitMillis < 0){
+			throw new IllegalArgumentException("maxWaitMillis cannot be negative");
+		}
+		this.timeSource = timeSource;
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	public long currentTimeMillis() {
+		long now = timeSource.currentTimeMillis();
+		long last = latest.get();
+		if(now >= last){
+			// concurrent readers may race here, only the highest value matters
+			while(now > last && !latest.compareAndSet(last, now)){
+				last = latest.get();
+			}
+			return now;
+		}
+
+		long regression = last - now;
+		long previous = reported.get();
+		if(previous < last && reported.compareAndSet(previous, last)){
+			regressionCount.incrementAndGet();
+			for(ClockRegressionListener listener : listeners){
+				listener.onClockRegression(regression);
+			}
+		}
+		if(regression > maxWaitMillis){
+			throw new ClockRegressionException(regression);
+		}
+		while(now < last){
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(last - now));
+			now = timeSource.currentTimeMillis();
+		}
+		return now;
+	}
+
+	public void addListener(ClockRegressionListener listener){
+		listeners.addIfAbsent(listener);
+	}
+
+	public void removeListener(ClockRegressionListener listener){
+		listeners.remove(listener);
+	}
+
+	/**
+	 *
+	 * @return number of clock regressions detected so far
+	 */
+	public long getRegressionCount(){
+		return regressionCount.get();
+	}
+
+}
@@ -0,0 +1,15 @@
+package com.mobinlife.jflake.time;
+
+/**
+ * Notified by ClockRegressionGuard of every clock regression it detects
+ *
+ */
+public interface ClockRegressionListener {
+
+	/**
+	 *
+	 * @param regressionMillis how far the clock went backward, in ms
+	 */
+	public void onClockRegression(long regressionMillis);
+
+}
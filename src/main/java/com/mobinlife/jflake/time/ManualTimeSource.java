@@ -0,0 +1,31 @@
+package com.mobinlife.jflake.time;
+
+/**
+ * Time source driven by hand, to make tests and benchmarks deterministic
+ *
+ */
+public class ManualTimeSource implements TimeSource {
+
+	private volatile long currentTimeMillis;
+
+	public ManualTimeSource(long currentTimeMillis){
+		this.currentTimeMillis = currentTimeMillis;
+	}
+
+	public long currentTimeMillis() {
+		return currentTimeMillis;
+	}
+
+	public synchronized void setCurrentTimeMillis(long currentTimeMillis){
+		this.currentTimeMillis = currentTimeMillis;
+	}
+
+	/**
+	 * Moves the time forward (or backward with a negative value)
+	 * @param millis
+	 */
+	public synchronized void advance(long millis){
+		currentTimeMillis += millis;
+	}
+
+}
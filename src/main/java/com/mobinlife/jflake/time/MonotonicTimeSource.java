@@ -0,0 +1,23 @@
+package com.mobinlife.jflake.time;
+
+/**
+ * Time source that never goes backward: the wall clock is read once at creation, time then advances with
+ * System.nanoTime(). Wall clock adjustments made afterwards (NTP steps or slewing) are not followed, so the time
+ * returned slowly drifts away from the wall clock on long running processes.
+ *
+ */
+public class MonotonicTimeSource implements TimeSource {
+
+	private final long originMillis;
+	private final long originNanos;
+
+	public MonotonicTimeSource(){
+		this.originMillis = System.currentTimeMillis();
+		this.originNanos = System.nanoTime();
+	}
+
+	public long currentTimeMillis() {
+		return originMillis + (System.nanoTime() - originNanos) / 1000000L;
+	}
+
+}
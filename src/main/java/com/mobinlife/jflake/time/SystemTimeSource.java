@@ -0,0 +1,19 @@
+package com.mobinlife.jflake.time;
+
+/**
+ * Wall clock time, as given by System.currentTimeMillis(). Default time source of JFlake.
+ * Can go backward, e.g. after an NTP step
+ *
+ */
+public class SystemTimeSource implements TimeSource {
+
+	public static final SystemTimeSource INSTANCE = new SystemTimeSource();
+
+	private SystemTimeSource(){
+	}
+
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+}
@@ -0,0 +1,15 @@
+package com.mobinlife.jflake.time;
+
+/**
+ * Source of the time component of the IDs generated by JFlake
+ *
+ */
+public interface TimeSource {
+
+	/**
+	 *
+	 * @return current time in ms since 1970-01-01 00:00 GMT
+	 */
+	public long currentTimeMillis();
+
+}